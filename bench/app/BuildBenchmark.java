@@ -0,0 +1,71 @@
+package app;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Road;
+
+/**
+ * Loading: parsing the road file, building the graph from parsed roads and
+ * preprocessing it into a contraction hierarchy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class BuildBenchmark {
+	private List<Road> roads;
+	private RoadTable table;
+	private RoadGraph graph;
+
+	@Setup
+	public void setUp() throws IOException {
+		roads = RoadParser.parseRoads(QuerySets.roadFile());
+		table = RoadParser.parseRoadTable(QuerySets.roadFile(), 1);
+		graph = RoadParser.buildRoadGraph(roads);
+	}
+
+	@Benchmark
+	public RoadTable parseRoadTable() throws IOException {
+		return RoadParser.parseRoadTable(QuerySets.roadFile(), 1);
+	}
+
+	@Benchmark
+	public RoadTable parseRoadTableParallel() throws IOException {
+		return RoadParser.parseRoadTable(QuerySets.roadFile(), Runtime.getRuntime().availableProcessors());
+	}
+
+	@Benchmark
+	public List<Road> parseRoads() throws IOException {
+		return RoadParser.parseRoads(QuerySets.roadFile());
+	}
+
+	@Benchmark
+	public RoadGraph buildRoadGraph() {
+		return RoadParser.buildRoadGraph(roads);
+	}
+
+	@Benchmark
+	public RoadGraph buildRoadGraphParallel() {
+		return RoadParser.buildRoadGraph(table, Runtime.getRuntime().availableProcessors());
+	}
+
+	@Benchmark
+	public ContractionHierarchy buildContractionHierarchy() {
+		return ContractionHierarchy.build(graph);
+	}
+}
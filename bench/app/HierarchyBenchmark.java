@@ -0,0 +1,83 @@
+package app;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Road;
+import models.RoadPoint;
+
+/**
+ * Contraction hierarchy queries on the query sets of {@link SearchBenchmark},
+ * so the two compare directly. The hierarchy is built once per fork;
+ * {@link BuildBenchmark} measures building it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HierarchyBenchmark {
+	@Param
+	public QuerySets.Length length;
+
+	private ContractionHierarchy.Query query;
+	private int[] starts;
+	private int[] ends;
+	private RoadPoint[] startPoints;
+	private RoadPoint[] endPoints;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		RoadGraph graph = QuerySets.loadGraph();
+		query = ContractionHierarchy.build(graph).newQuery();
+
+		int[][] queries = QuerySets.select(graph, length);
+		starts = queries[0];
+		ends = queries[1];
+		startPoints = new RoadPoint[starts.length];
+		endPoints = new RoadPoint[ends.length];
+		for (int i = 0; i < starts.length; i++) {
+			startPoints[i] = graph.getRoadPoint(starts[i]);
+			endPoints[i] = graph.getRoadPoint(ends[i]);
+		}
+	}
+
+	private int nextQuery() {
+		int i = next;
+		next = i + 1 == starts.length ? 0 : i + 1;
+		return i;
+	}
+
+	/**
+	 * Search between vertex ids and unpack the shortcuts
+	 */
+	@Benchmark
+	public int[] edgePath() {
+		int i = nextQuery();
+		return query.search(starts[i], ends[i]);
+	}
+
+	/**
+	 * Look up the points, search and build the Road list
+	 */
+	@Benchmark
+	public List<Road> roadPath() {
+		int i = nextQuery();
+		return query.getOptimalPath(startPoints[i], endPoints[i]);
+	}
+}
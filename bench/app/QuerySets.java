@@ -0,0 +1,102 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import app.Pathfinder.AlgorithmType;
+
+/**
+ * Fixed query sets for the benchmarks. Random reachable (start, end) pairs are
+ * drawn with a fixed seed, ranked by shortest path length and split into
+ * thirds, so every run and every algorithm sees the same queries.
+ */
+public class QuerySets {
+	public enum Length {
+		SHORT, MEDIUM, LONG
+	}
+
+	private static final long SEED = 20160101L;
+	static final int QUERIES_PER_SET = 256;
+
+	// Give up drawing pairs after this many tries per wanted query, in case most
+	// of the graph is unreachable
+	private static final int MAX_TRIES_PER_QUERY = 64;
+
+	/**
+	 * @return the road file to benchmark on, set with -Dbench.roads=path
+	 */
+	static File roadFile() {
+		return new File(System.getProperty("bench.roads", "test.txt"));
+	}
+
+	static RoadGraph loadGraph() throws IOException {
+		return RoadParser.buildRoadGraph(RoadParser.parseRoads(roadFile()));
+	}
+
+	/**
+	 * @param graph
+	 * @param length
+	 * @return {starts, ends} of the queries in the given third
+	 */
+	static int[][] select(RoadGraph graph, Length length) {
+		final int wanted = QUERIES_PER_SET * Length.values().length;
+		final Random random = new Random(SEED);
+		final SearchWorkspace workspace = new SearchWorkspace(graph);
+
+		final int[] starts = new int[wanted];
+		final int[] ends = new int[wanted];
+		final double[] dists = new double[wanted];
+		int found = 0;
+		for (int tries = 0; found < wanted && tries < wanted * MAX_TRIES_PER_QUERY; tries++) {
+			int s = random.nextInt(graph.getVertexCount());
+			int t = random.nextInt(graph.getVertexCount());
+			int[] path = Pathfinder.getOptimalEdgePath(workspace, null, s, t, AlgorithmType.BIDIRECTIONAL_DIJKSTRA);
+			if (path.length == 0) {
+				continue;
+			}
+
+			double dist = 0;
+			for (int e : path) {
+				dist += graph.edgeWeight(e);
+			}
+			starts[found] = s;
+			ends[found] = t;
+			dists[found] = dist;
+			found++;
+		}
+		if (found < Length.values().length) {
+			throw new IllegalStateException("Too few reachable pairs in " + roadFile());
+		}
+
+		// Rank by distance, take this length's third and put it back in draw order
+		Integer[] ranked = new Integer[found];
+		for (int i = 0; i < found; i++) {
+			ranked[i] = i;
+		}
+		Arrays.sort(ranked, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(dists[a], dists[b]);
+			}
+		});
+
+		final int third = found / Length.values().length;
+		final int[] chosen = new int[third];
+		for (int i = 0; i < third; i++) {
+			chosen[i] = ranked[length.ordinal() * third + i];
+		}
+		Arrays.sort(chosen);
+
+		int[][] queries = new int[2][third];
+		for (int i = 0; i < third; i++) {
+			queries[0][i] = starts[chosen[i]];
+			queries[1][i] = ends[chosen[i]];
+		}
+
+		return queries;
+	}
+}
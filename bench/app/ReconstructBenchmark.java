@@ -0,0 +1,69 @@
+package app;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.Pathfinder.AlgorithmType;
+import models.Road;
+
+/**
+ * Turning a finished search into a path, separately from the search itself.
+ * The search state is left over from one A* query in setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReconstructBenchmark {
+	@Param
+	public QuerySets.Length length;
+
+	private RoadGraph graph;
+	private SearchWorkspace workspace;
+	private int start;
+	private int end;
+	private int[] edgePath;
+
+	@Setup
+	public void setUp() throws IOException {
+		graph = QuerySets.loadGraph();
+		workspace = new SearchWorkspace(graph);
+
+		// The set's median query
+		int[][] queries = QuerySets.select(graph, length);
+		start = queries[0][queries[0].length / 2];
+		end = queries[1][queries[1].length / 2];
+		edgePath = Pathfinder.getOptimalEdgePath(workspace, null, start, end, AlgorithmType.ASTAR);
+	}
+
+	/**
+	 * Follow parent edges back from the end
+	 */
+	@Benchmark
+	public int[] reconstructPath() {
+		return Pathfinder.reconstructPath(graph, workspace.state, start, end);
+	}
+
+	/**
+	 * Map edge ids to roads
+	 */
+	@Benchmark
+	public List<Road> toRoads() {
+		return Pathfinder.toRoads(graph, edgePath);
+	}
+}
@@ -0,0 +1,91 @@
+package app;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.Pathfinder.AlgorithmType;
+import models.Road;
+import models.RoadPoint;
+
+/**
+ * Point to point queries for every algorithm and query length. Each call
+ * routes the next query of the set, cycling through it. SampleTime mode gives
+ * the latency percentiles, -prof gc the allocation per query.
+ * {@link HierarchyBenchmark} runs contraction hierarchy queries on the same
+ * sets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SearchBenchmark {
+	@Param
+	public AlgorithmType algorithm;
+
+	@Param
+	public QuerySets.Length length;
+
+	private RoadGraph graph;
+	private SearchWorkspace workspace;
+	private int[] starts;
+	private int[] ends;
+	private RoadPoint[] startPoints;
+	private RoadPoint[] endPoints;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		graph = QuerySets.loadGraph();
+		workspace = new SearchWorkspace(graph);
+
+		int[][] queries = QuerySets.select(graph, length);
+		starts = queries[0];
+		ends = queries[1];
+		startPoints = new RoadPoint[starts.length];
+		endPoints = new RoadPoint[ends.length];
+		for (int i = 0; i < starts.length; i++) {
+			startPoints[i] = graph.getRoadPoint(starts[i]);
+			endPoints[i] = graph.getRoadPoint(ends[i]);
+		}
+	}
+
+	private int nextQuery() {
+		int i = next;
+		next = i + 1 == starts.length ? 0 : i + 1;
+		return i;
+	}
+
+	/**
+	 * Search between vertex ids with a reused workspace
+	 */
+	@Benchmark
+	public int[] edgePath() {
+		int i = nextQuery();
+		return Pathfinder.getOptimalEdgePath(workspace, null, starts[i], ends[i], algorithm);
+	}
+
+	/**
+	 * The whole public API: look up the points, search with fresh state and
+	 * build the Road list
+	 */
+	@Benchmark
+	public List<Road> roadPath() {
+		int i = nextQuery();
+		return Pathfinder.getOptimalPath(graph, null, startPoints[i], endPoints[i], algorithm);
+	}
+}
@@ -1,17 +1,42 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import app.BatchRouter;
+import app.CompressedGraph;
+import app.ContractionHierarchy;
+import app.DistanceMatrix;
+import app.GraphSnapshot;
+import app.Landmarks;
 import app.Pathfinder;
 import app.Pathfinder.AlgorithmType;
+import app.RoadGraph;
+import app.RoadNetwork;
 import app.RoadParser;
+import app.RouteCache;
+import app.SearchMetrics;
+import app.SearchStats;
+import app.SearchWorkspace;
+import app.ShortestPathTree;
 import models.Road;
 import models.RoadPoint;
 
-
+/**
+ * Quick smoke run over the test data. Single nanoTime samples without warmup
+ * are only a rough guide; use the JMH benchmarks in bench/ for real numbers:
+ * mvn -P bench package, then java -jar target/benchmarks.jar -prof gc
+ */
 public class Test {
 
 	/**
@@ -19,33 +44,46 @@ public class Test {
 	 * @throws IOException 
 	 * @throws FileNotFoundException 
 	 */
-	public static void main(String[] args) throws FileNotFoundException, IOException {
-		List<Road> roads = RoadParser.parseRoads(new File("test.txt"));
-		Map<RoadPoint, List<RoadPoint>> roadMap = RoadParser.buildRoadPointGraph(roads);
+	public static void main(String[] args) throws FileNotFoundException, IOException, InterruptedException {
+		final RoadGraph graph = GraphSnapshot.loadOrBuild(new File("test.txt"), new File("test.txt.graph"),
+				new GraphSnapshot.FallbackHandler() {
+
+					@Override
+					public void readFailed(IOException e) {
+						System.out.println("Rebuilding graph snapshot: " + e.getMessage());
+					}
+
+					@Override
+					public void writeFailed(IOException e) {
+						System.out.println("Could not write graph snapshot: " + e.getMessage());
+					}
+				});
+		List<Road> roads = graph.getRoads();
+		Landmarks landmarks = Landmarks.select(graph, 8, Landmarks.Selection.AVOID, 0);
 
 		double bfsAccum = 0;
 		double astarAccum = 0;
+		double altAccum = 0;
 		int numTests = 0;
 		Random ran = new Random();
 		ran.nextInt(roads.size()-1);
 
 		long bfsTime;
 		long astarTime;
+		long altTime;
 		long startTime;
 		long elapsedMicroSec;
 		RoadPoint start;
 		RoadPoint end;
-		Map<RoadPoint, Double> heuristics;
 		List<Road> optPath;
 		int numAstarFaster = 0;
 		for(int i = 0; i < 5000; i++) {
 			start = roads.get(ran.nextInt(roads.size()-1)).getStartPoint();
 			end = roads.get(ran.nextInt(roads.size()-1)).getStartPoint();
-			heuristics = Pathfinder.calculateHeuristics(roads, end);
 			
 			// Test BFS
 			startTime = System.nanoTime();
-			optPath = Pathfinder.getOptimalPath(roads, roadMap, heuristics, start, end, AlgorithmType.BFS);
+			optPath = Pathfinder.getOptimalPath(graph, null, start, end, AlgorithmType.BFS);
 
 			// If path doesn't exist, skip over this case
 			if(optPath == null || optPath.size() == 0)
@@ -55,7 +93,7 @@ public class Test {
 				
 			// Test A*
 			startTime = System.nanoTime();
-			optPath = Pathfinder.getOptimalPath(roads, roadMap, heuristics, start, end, AlgorithmType.ASTAR);
+			optPath = Pathfinder.getOptimalPath(graph, null, start, end, AlgorithmType.ASTAR);
 
 			// If path doesn't exist, skip over this case
 			if(optPath == null || optPath.size() == 0)
@@ -63,9 +101,16 @@ public class Test {
 
 			astarTime = (System.nanoTime() - startTime) / 1000;
 
+			// Test A* with landmark heuristics
+			startTime = System.nanoTime();
+			optPath = Pathfinder.getOptimalPath(graph, landmarks.toTarget(graph.getVertex(end)), start, end,
+					AlgorithmType.ASTAR);
+			altTime = (System.nanoTime() - startTime) / 1000;
+
 			// Update # test counter
 			bfsAccum += bfsTime;
 			astarAccum += astarTime;
+			altAccum += altTime;
 			if(astarTime < bfsTime) {
 				numAstarFaster++;
 			}
@@ -76,6 +121,279 @@ public class Test {
 		double avgAstar = astarAccum / numTests;
 		System.out.printf("# tests: %d|BFS: %f|A*: %f|Astar is: %f%% slower\n",numTests, avgBfs, avgAstar, (avgAstar/avgBfs)*100);
 		System.out.println("Astar faster: " + numAstarFaster);
+		System.out.printf("A* with landmarks: %f\n", altAccum / numTests);
+
+		// Test batch A* throughput on all cores
+		final int[] starts = new int[5000];
+		final int[] ends = new int[5000];
+		for(int i = 0; i < starts.length; i++) {
+			starts[i] = ran.nextInt(graph.getVertexCount());
+			ends[i] = ran.nextInt(graph.getVertexCount());
+		}
+		BatchRouter router = new BatchRouter(graph, AlgorithmType.ASTAR);
+		router.route(starts, ends);
+		startTime = System.nanoTime();
+		router.route(starts, ends);
+		elapsedMicroSec = (System.nanoTime() - startTime) / 1000;
+		System.out.printf("Batch A*: %d queries in %d us (%f queries/s)\n", starts.length, elapsedMicroSec,
+				starts.length * 1e6 / elapsedMicroSec);
+
+		// Contraction hierarchy, saved and loaded again, against Dijkstra on the
+		// same queries
+		startTime = System.nanoTime();
+		ContractionHierarchy built = ContractionHierarchy.build(graph);
+		elapsedMicroSec = (System.nanoTime() - startTime) / 1000;
+		File chFile = File.createTempFile("test", ".ch");
+		chFile.deleteOnExit();
+		built.save(chFile);
+		ContractionHierarchy.Query chQuery = ContractionHierarchy.load(chFile, graph).newQuery();
+		SearchWorkspace dijkstraWorkspace = new SearchWorkspace(graph);
+		int chMismatches = 0;
+		long chNanos = 0;
+		long dijkstraNanos = 0;
+		for(int i = 0; i < starts.length; i++) {
+			startTime = System.nanoTime();
+			int[] chPath = chQuery.search(starts[i], ends[i]);
+			chNanos += System.nanoTime() - startTime;
+			startTime = System.nanoTime();
+			int[] dijkstraPath = Pathfinder.getOptimalEdgePath(dijkstraWorkspace, null, starts[i], ends[i],
+					AlgorithmType.DIJKSTRA);
+			dijkstraNanos += System.nanoTime() - startTime;
+
+			// Dijkstra adds up rounded lengths, so its paths may be longer by the
+			// rounding error
+			double tolerance = (double) (chPath.length + dijkstraPath.length) / RoadGraph.LENGTH_SCALE;
+			if(chPath.length == 0 != (dijkstraPath.length == 0)
+					|| Math.abs(pathLength(graph, chPath) - pathLength(graph, dijkstraPath)) > tolerance) {
+				chMismatches++;
+			}
+		}
+		System.out.printf("Contraction hierarchy: %d shortcuts in %d us, %d mismatches, %f us per query (Dijkstra: %f us)\n",
+				built.getShortcutCount(), elapsedMicroSec, chMismatches, chNanos / 1000.0 / starts.length,
+				dijkstraNanos / 1000.0 / starts.length);
+
+		// A* with landmark heuristics against Dijkstra on the same queries
+		SearchWorkspace altWorkspace = new SearchWorkspace(graph);
+		int altMismatches = 0;
+		for(int i = 0; i < starts.length; i++) {
+			int[] altPath = Pathfinder.getOptimalEdgePath(altWorkspace, landmarks.toTarget(ends[i]), starts[i],
+					ends[i], AlgorithmType.ASTAR);
+			int[] dijkstraPath = Pathfinder.getOptimalEdgePath(dijkstraWorkspace, null, starts[i], ends[i],
+					AlgorithmType.DIJKSTRA);
+			double tolerance = (double) (altPath.length + dijkstraPath.length) / RoadGraph.LENGTH_SCALE;
+			if(altPath.length == 0 != (dijkstraPath.length == 0)
+					|| Math.abs(pathLength(graph, altPath) - pathLength(graph, dijkstraPath)) > tolerance) {
+				altMismatches++;
+			}
+		}
+		System.out.printf("A* with landmarks against Dijkstra: %d mismatches\n", altMismatches);
+
+		// Distance matrices against pairwise Dijkstra: 5 x 20 searches forward
+		// from the sources, 20 x 5 backward from the targets into a direct buffer.
+		// A repeated target checks that the searches stop only once every
+		// distinct target is settled.
+		int[] few = Arrays.copyOfRange(starts, 0, 5);
+		int[] many = Arrays.copyOfRange(ends, 0, 20);
+		many[19] = many[0];
+		float[] forward = DistanceMatrix.compute(graph, few, many);
+		FloatBuffer backward = ByteBuffer.allocateDirect(4 * many.length * few.length).order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+		DistanceMatrix.compute(graph, many, few, backward, ForkJoinPool.commonPool());
+		int matrixMismatches = 0;
+		for(int i = 0; i < few.length; i++) {
+			for(int j = 0; j < many.length; j++) {
+				if(!isDistance(dijkstraWorkspace, forward[i * many.length + j], few[i], many[j])) {
+					matrixMismatches++;
+				}
+				if(!isDistance(dijkstraWorkspace, backward.get(j * few.length + i), many[j], few[i])) {
+					matrixMismatches++;
+				}
+			}
+		}
+
+		// Paths of shortest path trees from and to the same vertices
+		int treeMismatches = 0;
+		for(int i = 0; i < few.length; i++) {
+			ShortestPathTree fromTree = ShortestPathTree.fromSource(graph, few[i]);
+			ShortestPathTree toTree = ShortestPathTree.toTarget(graph, few[i]);
+			for(int j = 0; j < many.length; j++) {
+				if(!isPath(graph, fromTree.path(many[j]), few[i], many[j], fromTree.distance(many[j]))
+						|| !isPath(graph, toTree.path(many[j]), many[j], few[i], toTree.distance(many[j]))) {
+					treeMismatches++;
+				}
+			}
+		}
+		System.out.printf("Distance matrix: %d mismatches, shortest path trees: %d mismatches\n", matrixMismatches,
+				treeMismatches);
+
+		// Per-query stats for every algorithm
+		SearchWorkspace workspace = new SearchWorkspace(graph);
+		SearchStats stats = new SearchStats();
+		SearchMetrics metrics = new SearchMetrics();
+		workspace.setStats(stats);
+		for(AlgorithmType type : AlgorithmType.values()) {
+			for(int i = 0; i < 500; i++) {
+				Pathfinder.getOptimalEdgePath(workspace, null, starts[i], ends[i], type);
+				metrics.record(stats);
+			}
+			System.out.println(type + " latency ns: " + metrics.getLatencyNanos(type));
+			System.out.println(type + " settled: " + metrics.getSettled(type));
+		}
+
+		// Same queries on the graph with its degree-2 chains collapsed
+		CompressedGraph compressed = CompressedGraph.compress(graph);
+		System.out.printf("Compressed graph: %d -> %d vertices, %d -> %d edges\n", graph.getVertexCount(),
+				compressed.getCompressed().getVertexCount(), graph.getEdgeCount(),
+				compressed.getCompressed().getEdgeCount());
+		// BFS counts edges, so it can't run on the compressed graph; every other
+		// algorithm must find paths just as short. Each loop runs once untimed
+		// first, like the batch run above, so both sides are compiled.
+		SearchWorkspace plainWorkspace = new SearchWorkspace(graph);
+		SearchWorkspace compressedWorkspace = new SearchWorkspace(compressed.getCompressed());
+		for(AlgorithmType type : AlgorithmType.values()) {
+			if(type == AlgorithmType.BFS) {
+				continue;
+			}
+
+			int[][] plainPaths = new int[starts.length][];
+			int[][] compressedPaths = new int[starts.length][];
+			long plainMicroSec = 0;
+			for(int run = 0; run < 2; run++) {
+				startTime = System.nanoTime();
+				for(int i = 0; i < starts.length; i++) {
+					plainPaths[i] = Pathfinder.getOptimalEdgePath(plainWorkspace, null, starts[i], ends[i], type);
+				}
+				plainMicroSec = (System.nanoTime() - startTime) / 1000;
+
+				startTime = System.nanoTime();
+				for(int i = 0; i < starts.length; i++) {
+					compressedPaths[i] = compressed.getOptimalEdgePath(compressedWorkspace, starts[i], ends[i], type);
+				}
+				elapsedMicroSec = (System.nanoTime() - startTime) / 1000;
+			}
+
+			int mismatches = 0;
+			for(int i = 0; i < starts.length; i++) {
+				double tolerance = (double) (plainPaths[i].length + compressedPaths[i].length) / RoadGraph.LENGTH_SCALE;
+				if(plainPaths[i].length == 0 != (compressedPaths[i].length == 0) || Math.abs(
+						pathLength(graph, plainPaths[i]) - pathLength(graph, compressedPaths[i])) > tolerance) {
+					mismatches++;
+				}
+			}
+			System.out.printf("%s: %d us, compressed: %d us, %d mismatches\n", type, plainMicroSec, elapsedMicroSec,
+					mismatches);
+		}
+
+		// Cached routes from several threads at once, with fewer cache entries
+		// than distinct queries so that entries get evicted
+		final RouteCache cache = new RouteCache(graph, 256, RouteCache.Weigher.entries());
+		final AtomicInteger cacheMismatches = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					SearchWorkspace uncached = new SearchWorkspace(graph);
+					for(int i = 0; i < 2000; i++) {
+						int q = i % 500;
+						int[] path = cache.getOptimalEdgePath(starts[q], ends[q], AlgorithmType.ASTAR);
+						if(!Arrays.equals(path,
+								Pathfinder.getOptimalEdgePath(uncached, null, starts[q], ends[q], AlgorithmType.ASTAR))) {
+							cacheMismatches.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		System.out.printf("Route cache: %d mismatches, %d hits, %d misses, %d evictions, %d cached\n",
+				cacheMismatches.get(), cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount(), cache.size());
+
+		// Closing one of two parallel roads keeps the edges the other provides
+		RoadNetwork network = new RoadNetwork(graph);
+		Road first = roads.get(0);
+		RoadNetwork.Update update = network.update();
+		update.addRoad(new Road(first.getRoadType(), first.getStartPoint().getPoint(), first.getEndPoint().getPoint()));
+		update.apply();
+		network.update().closeRoad(0).apply();
+		List<Road> openRoads = new ArrayList<>();
+		for(int i = 0; i < network.getGraph().getRoads().size(); i++) {
+			if(!network.isClosed(i)) {
+				openRoads.add(network.getGraph().getRoads().get(i));
+			}
+		}
+		System.out.println("Closed parallel road same as rebuild: "
+				+ edgeSet(network.getGraph()).equals(edgeSet(RoadParser.buildRoadGraph(openRoads))));
+
+		// A removed edge stays removed when a road between its end points is added
+		int u = network.getGraph().getVertex(first.getStartPoint());
+		int v = network.getGraph().getVertex(first.getEndPoint());
+		network.update().removeEdge(network.getGraph().findEdge(u, v)).apply();
+		update = network.update();
+		update.addRoad(new Road(Road.RoadType.ONE_WAY, first.getEndPoint().getPoint(), first.getStartPoint().getPoint()));
+		update.apply();
+		System.out.println("Removed edge stays removed: "
+				+ (network.getGraph().findEdge(u, v) < 0 && network.getGraph().findEdge(v, u) >= 0));
+	}
+
+	/**
+	 * @return total weight of the edges of edgePath
+	 */
+	private static double pathLength(RoadGraph graph, int[] edgePath) {
+		double length = 0;
+		for(int e : edgePath) {
+			length += graph.edgeWeight(e);
+		}
+		return length;
+	}
+
+	/**
+	 * @return whether distance is the length of the shortest path from start to
+	 *         end that Dijkstra finds, up to its rounding
+	 */
+	private static boolean isDistance(SearchWorkspace workspace, float distance, int start, int end) {
+		int[] path = Pathfinder.getOptimalEdgePath(workspace, null, start, end, AlgorithmType.DIJKSTRA);
+		if(path.length == 0 && start != end) {
+			return distance == Float.POSITIVE_INFINITY;
+		}
+		return Math.abs(distance - pathLength(workspace.getGraph(), path))
+				<= (double) (path.length + 1) / RoadGraph.LENGTH_SCALE;
+	}
+
+	/**
+	 * @return whether edgePath leads from start to end with the given length,
+	 *         or is empty with an infinite length if end can't be reached
+	 */
+	private static boolean isPath(RoadGraph graph, int[] edgePath, int start, int end, float length) {
+		if(length == Float.POSITIVE_INFINITY) {
+			return edgePath.length == 0;
+		}
+		int cur = start;
+		for(int e : edgePath) {
+			if(graph.edgeSource(e) != cur) {
+				return false;
+			}
+			cur = graph.edgeTarget(e);
+		}
+		return cur == end && Math.abs(pathLength(graph, edgePath) - length) <= (edgePath.length + 1) * 1e-3;
+	}
+
+	/**
+	 * @return every edge of graph as its end points, weight and road
+	 */
+	private static Set<String> edgeSet(RoadGraph graph) {
+		Set<String> edges = new HashSet<>();
+		for(int e = 0; e < graph.getEdgeCount(); e++) {
+			int u = graph.edgeSource(e);
+			int v = graph.edgeTarget(e);
+			edges.add(graph.getX(u) + "," + graph.getY(u) + " " + graph.getX(v) + "," + graph.getY(v) + " "
+					+ graph.edgeWeight(e) + " " + System.identityHashCode(graph.edgeRoad(e)));
+		}
+		return edges;
 	}
 
 }
@@ -0,0 +1,163 @@
+package app;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import app.Pathfinder.AlgorithmType;
+
+/**
+ * Runs many shortest path queries on one graph in parallel. Queries are split
+ * into blocks that run on a fork-join pool; every pool thread keeps its own
+ * {@link SearchWorkspace}, so a query allocates nothing but its result and
+ * clears only what the previous query on that thread touched.
+ *
+ * Results are handed back on the calling thread in query order, while later
+ * blocks are still being routed. A router may be used from several threads at
+ * once.
+ */
+public class BatchRouter {
+	// Queries per task. Large enough to amortize task overhead, small enough to
+	// keep every worker busy near the end of a batch.
+	private static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Receives the result of each query of a batch
+	 */
+	public interface ResultHandler {
+		/**
+		 * @param query
+		 *            index of the query in the batch
+		 * @param edgePath
+		 *            edge ids of the optimal path, empty if there is none
+		 */
+		void accept(int query, int[] edgePath);
+	}
+
+	private final RoadGraph graph;
+	private final AlgorithmType type;
+	private final ForkJoinPool pool;
+
+	private final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<SearchWorkspace>() {
+
+		@Override
+		protected SearchWorkspace initialValue() {
+			return new SearchWorkspace(graph);
+		}
+	};
+
+	/**
+	 * Route on the common fork-join pool
+	 *
+	 * @param graph
+	 * @param type
+	 *            which search algorithm to use
+	 */
+	public BatchRouter(RoadGraph graph, AlgorithmType type) {
+		this(graph, type, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param graph
+	 * @param type
+	 *            which search algorithm to use
+	 * @param pool
+	 *            pool to run the queries on
+	 */
+	public BatchRouter(RoadGraph graph, AlgorithmType type, ForkJoinPool pool) {
+		this.graph = graph;
+		this.type = type;
+		this.pool = pool;
+	}
+
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Route from starts[i] to ends[i] for every i, passing each result to handler
+	 * in order of i as soon as it and every earlier result are done
+	 *
+	 * @param starts
+	 *            start vertex of each query
+	 * @param ends
+	 *            end vertex of each query
+	 * @param handler
+	 */
+	public void route(final int[] starts, final int[] ends, ResultHandler handler) {
+		if (starts.length != ends.length) {
+			throw new IllegalArgumentException(
+					"Got " + starts.length + " start vertices but " + ends.length + " end vertices");
+		}
+
+		final int numBlocks = (starts.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+		// Keep a few blocks per worker in flight, so results don't pile up when the
+		// handler is slower than the search
+		final int window = Math.max(2, pool.getParallelism() * 4);
+		ArrayDeque<ForkJoinTask<int[][]>> pending = new ArrayDeque<>();
+		int submitted = 0;
+		for (int block = 0; block < numBlocks; block++) {
+			while (submitted < numBlocks && submitted < block + window) {
+				pending.add(pool.submit(new Block(starts, ends, submitted * BLOCK_SIZE,
+						Math.min(starts.length, (submitted + 1) * BLOCK_SIZE))));
+				submitted++;
+			}
+
+			int[][] paths = pending.poll().join();
+			for (int i = 0; i < paths.length; i++) {
+				handler.accept(block * BLOCK_SIZE + i, paths[i]);
+			}
+		}
+	}
+
+	/**
+	 * Route from starts[i] to ends[i] for every i
+	 *
+	 * @param starts
+	 * @param ends
+	 * @return edge ids of the optimal path for each query, empty where there is
+	 *         none
+	 */
+	public int[][] route(int[] starts, int[] ends) {
+		final int[][] paths = new int[starts.length][];
+		route(starts, ends, new ResultHandler() {
+
+			@Override
+			public void accept(int query, int[] edgePath) {
+				paths[query] = edgePath;
+			}
+		});
+
+		return paths;
+	}
+
+	/**
+	 * Routes queries [from, to) with the running thread's workspace
+	 */
+	private class Block implements Callable<int[][]> {
+		private final int[] starts;
+		private final int[] ends;
+		private final int from;
+		private final int to;
+
+		Block(int[] starts, int[] ends, int from, int to) {
+			this.starts = starts;
+			this.ends = ends;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public int[][] call() {
+			final SearchWorkspace workspace = workspaces.get();
+			final int[][] paths = new int[to - from][];
+			for (int i = from; i < to; i++) {
+				paths[i - from] = Pathfinder.getOptimalEdgePath(workspace, null, starts[i], ends[i], type);
+			}
+
+			return paths;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package app;
+
+/**
+ * Bidirectional Dijkstra and A*. One search runs forward from the start over
+ * outgoing edges and one runs backward from the end over incoming edges, so
+ * one-way roads are respected, and each step expands whichever side has the
+ * smaller queue key.
+ *
+ * The A* variant uses the average potential p(v) = (hEnd(v) - hStart(v)) / 2
+ * forward and -p(v) backward. With consistent heuristics both searches are then
+ * Dijkstra over the same non-negative reduced edge costs, which makes the
+ * bidirectional Dijkstra stopping rule valid: once the two queue minimums add up
+ * to at least the best path seen so far, that path is optimal. Without
+ * heuristics p is zero and this is plain bidirectional Dijkstra.
+ */
+public class BidirectionalSearch {
+	private final RoadGraph graph;
+
+	// Distance from the start / to the end found so far, and the edge each vertex
+	// was reached by: forward it ends at the vertex, backward it starts at it
+	private final SearchState forward;
+	private final SearchState backward;
+
+	private SearchMonitor monitor;
+	private SearchStats stats;
+
+	public BidirectionalSearch(RoadGraph graph) {
+		this.graph = graph;
+		forward = new SearchState(graph.getVertexCount());
+		backward = new SearchState(graph.getVertexCount());
+	}
+
+	void setMonitor(SearchMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	void setStats(SearchStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Find the optimal path from startPoint to endPoint
+	 *
+	 * @param toEnd
+	 *            consistent heuristic for endPoint, or null for Dijkstra
+	 * @param toStart
+	 *            consistent heuristic for reaching startPoint backwards, or null
+	 *            for Dijkstra
+	 * @param startPoint
+	 * @param endPoint
+	 * @return edge ids of the path in order, empty if there is none
+	 */
+	public int[] search(Heuristic toEnd, Heuristic toStart, int startPoint, int endPoint) {
+		final boolean useHeuristics = toEnd != null && toStart != null;
+		final IndexedHeap forwardQueue = forward.queue;
+		final IndexedHeap backwardQueue = backward.queue;
+		forward.reset();
+		backward.reset();
+
+		forward.reach(startPoint, 0, -1);
+		backward.reach(endPoint, 0, -1);
+		forwardQueue.push(startPoint, potential(toEnd, toStart, useHeuristics, startPoint));
+		backwardQueue.push(endPoint, -potential(toEnd, toStart, useHeuristics, endPoint));
+
+		// Length of the best path seen so far, and the vertex where its two halves
+		// meet
+		double best = startPoint == endPoint ? 0 : Double.POSITIVE_INFINITY;
+		int meeting = startPoint == endPoint ? startPoint : -1;
+
+		int expanded = 0;
+		int pushes = 2;
+		int decreaseKeys = 0;
+		int relaxed = 0;
+		while (!forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+			if (forwardQueue.peekKey() + backwardQueue.peekKey() >= best) {
+				break;
+			}
+
+			final boolean expandForward = forwardQueue.peekKey() <= backwardQueue.peekKey();
+			expanded++;
+			if (monitor != null && expanded % SearchMonitor.INTERVAL == 0) {
+				SearchWorkspace.checkpoint(monitor, expanded,
+						expandForward ? forwardQueue.peek() : backwardQueue.peek());
+			}
+
+			if (expandForward) {
+				// Expand forward over outgoing edges
+				int cur = forwardQueue.pop();
+				relaxed += graph.edgeEnd(cur) - graph.edgeStart(cur);
+				for (int e = graph.edgeStart(cur); e < graph.edgeEnd(cur); e++) {
+					int neighbor = graph.edgeTarget(e);
+					double dist = forward.dist(cur) + graph.edgeWeight(e);
+					if (dist < forward.dist(neighbor)) {
+						forward.reach(neighbor, dist, e);
+						if (forwardQueue.contains(neighbor)) {
+							decreaseKeys++;
+						} else {
+							pushes++;
+						}
+						forwardQueue.pushOrDecrease(neighbor,
+								dist + potential(toEnd, toStart, useHeuristics, neighbor));
+
+						if (dist + backward.dist(neighbor) < best) {
+							best = dist + backward.dist(neighbor);
+							meeting = neighbor;
+						}
+					}
+				}
+			} else {
+				// Expand backward over incoming edges
+				int cur = backwardQueue.pop();
+				relaxed += graph.inEdgeEnd(cur) - graph.inEdgeStart(cur);
+				for (int i = graph.inEdgeStart(cur); i < graph.inEdgeEnd(cur); i++) {
+					int e = graph.inEdge(i);
+					int neighbor = graph.edgeSource(e);
+					double dist = backward.dist(cur) + graph.edgeWeight(e);
+					if (dist < backward.dist(neighbor)) {
+						backward.reach(neighbor, dist, e);
+						if (backwardQueue.contains(neighbor)) {
+							decreaseKeys++;
+						} else {
+							pushes++;
+						}
+						backwardQueue.pushOrDecrease(neighbor,
+								dist - potential(toEnd, toStart, useHeuristics, neighbor));
+
+						if (dist + forward.dist(neighbor) < best) {
+							best = dist + forward.dist(neighbor);
+							meeting = neighbor;
+						}
+					}
+				}
+			}
+		}
+
+		if (stats != null) {
+			stats.settled = expanded;
+			stats.pops = expanded;
+			stats.pushes = pushes;
+			stats.decreaseKeys = decreaseKeys;
+			stats.relaxed = relaxed;
+		}
+
+		if (meeting < 0) {
+			return new int[0];
+		}
+
+		if (stats == null) {
+			return buildPath(startPoint, endPoint, meeting);
+		}
+
+		long startTime = System.nanoTime();
+		int[] path = buildPath(startPoint, endPoint, meeting);
+		stats.reconstructNanos = System.nanoTime() - startTime;
+		return path;
+	}
+
+	private static double potential(Heuristic toEnd, Heuristic toStart, boolean useHeuristics, int v) {
+		if (!useHeuristics) {
+			return 0;
+		}
+
+		return (toEnd.estimate(v) - toStart.estimate(v)) / 2;
+	}
+
+	// Join the forward tree path start..meeting with the backward tree path
+	// meeting..end
+	private int[] buildPath(int startPoint, int endPoint, int meeting) {
+		int forwardLength = 0;
+		for (int v = meeting; v != startPoint; v = graph.edgeSource(forward.parentEdge(v))) {
+			forwardLength++;
+		}
+		int backwardLength = 0;
+		for (int v = meeting; v != endPoint; v = graph.edgeTarget(backward.parentEdge(v))) {
+			backwardLength++;
+		}
+
+		int[] path = new int[forwardLength + backwardLength];
+
+		// Forward half is walked from the meeting point back to the start
+		int i = forwardLength;
+		for (int v = meeting; v != startPoint; v = graph.edgeSource(forward.parentEdge(v))) {
+			path[--i] = forward.parentEdge(v);
+		}
+
+		// Backward half is walked from the meeting point on to the end
+		i = forwardLength;
+		for (int v = meeting; v != endPoint; v = graph.edgeTarget(backward.parentEdge(v))) {
+			path[i++] = backward.parentEdge(v);
+		}
+
+		return path;
+	}
+}
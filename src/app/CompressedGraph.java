@@ -0,0 +1,561 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import app.Pathfinder.AlgorithmType;
+import models.Road;
+import models.RoadPoint;
+
+/**
+ * A road graph with its degree-2 chains collapsed. Streets are stored as long
+ * polylines of short segments, so many vertices only pass traffic along: one
+ * edge in and one out (a one-way street) or edges to and from the same two
+ * neighbours (a two-way street). Such chain vertices are removed, and each
+ * chain between two remaining (core) vertices becomes a single edge weighted
+ * with the chain's total length, which is what the searches run on.
+ *
+ * Each compressed edge remembers the original edges of its chain, so paths
+ * come back as original edge ids and roads. Start and end points in the middle
+ * of a chain are handled by walking the chain to its core vertices and
+ * searching from or to those.
+ */
+public class CompressedGraph {
+	private static final int[] NO_EDGES = new int[0];
+
+	private final RoadGraph original;
+	private final RoadGraph compressed;
+
+	// Compressed vertex of each original vertex, -1 for chain vertices; and the
+	// original vertex of each compressed vertex
+	private final int[] coreIds;
+	private final int[] originalVertices;
+
+	// Chain c runs from original core vertex chainSources[c] along original
+	// edges chainEdges[chainOffsets[c]..chainOffsets[c + 1]] to a core vertex.
+	// chainCosts[i] is the length of the chain up to and including edge i.
+	private final int[] chainSources;
+	private final int[] chainOffsets;
+	private final int[] chainEdges;
+	private final double[] chainCosts;
+
+	// The up to two chains through each chain vertex, -1 where there are fewer.
+	// A chain passes through the target of its edge at index chainIndex.
+	private final int[] firstChain;
+	private final int[] firstIndex;
+	private final int[] secondChain;
+	private final int[] secondIndex;
+
+	// Chain each compressed edge stands for
+	private final int[] edgeChains;
+
+	private CompressedGraph(RoadGraph original) {
+		this.original = original;
+		final int n = original.getVertexCount();
+
+		boolean[] core = new boolean[n];
+		for (int v = 0; v < n; v++) {
+			core[v] = !isPassThrough(original, v);
+		}
+
+		firstChain = new int[n];
+		firstIndex = new int[n];
+		secondChain = new int[n];
+		secondIndex = new int[n];
+		Arrays.fill(firstChain, -1);
+		Arrays.fill(secondChain, -1);
+
+		IntList sources = new IntList();
+		IntList offsets = new IntList();
+		IntList edges = new IntList(original.getEdgeCount());
+		offsets.add(0);
+		for (int v = 0; v < n; v++) {
+			if (core[v]) {
+				walkChains(v, core, sources, offsets, edges);
+			}
+		}
+
+		// Whatever chain vertex is left lies on a cycle with no core vertex at all.
+		// Make one vertex of each such cycle core.
+		for (int v = 0; v < n; v++) {
+			if (!core[v] && firstChain[v] < 0) {
+				core[v] = true;
+				walkChains(v, core, sources, offsets, edges);
+			}
+		}
+
+		chainSources = sources.toArray();
+		chainOffsets = offsets.toArray();
+		chainEdges = edges.toArray();
+		chainCosts = new double[chainEdges.length];
+		for (int c = 0; c < chainSources.length; c++) {
+			double cost = 0;
+			for (int i = chainOffsets[c]; i < chainOffsets[c + 1]; i++) {
+				cost += original.edgeWeight(chainEdges[i]);
+				chainCosts[i] = cost;
+			}
+		}
+
+		// Number the core vertices
+		coreIds = new int[n];
+		IntList cores = new IntList();
+		for (int v = 0; v < n; v++) {
+			coreIds[v] = core[v] ? cores.size() : -1;
+			if (core[v]) {
+				cores.add(v);
+			}
+		}
+		originalVertices = cores.toArray();
+
+		// One edge per chain, except that self loops are dropped and only the
+		// shortest of parallel chains is kept. Sorting the chains by (source,
+		// target, cost) orders each vertex's edges by target and puts the shortest
+		// of parallel chains first.
+		final int numChains = chainSources.length;
+		Integer[] order = new Integer[numChains];
+		for (int c = 0; c < numChains; c++) {
+			order[c] = c;
+		}
+		final long[] keys = new long[numChains];
+		for (int c = 0; c < numChains; c++) {
+			keys[c] = ((long) coreIds[chainSources[c]] << 32) | coreIds[chainTarget(c)];
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer a, Integer b) {
+				int byKey = Long.compare(keys[a], keys[b]);
+				return byKey != 0 ? byKey : Double.compare(chainCost(a), chainCost(b));
+			}
+		});
+
+		final int numCores = originalVertices.length;
+		final int[] coreOffsets = new int[numCores + 1];
+		IntList targets = new IntList();
+		IntList kept = new IntList();
+		for (int i = 0; i < numChains; i++) {
+			int c = order[i];
+			int source = coreIds[chainSources[c]];
+			int target = coreIds[chainTarget(c)];
+			if (source == target || i > 0 && keys[order[i - 1]] == keys[c]) {
+				continue;
+			}
+			targets.add(target);
+			kept.add(c);
+			coreOffsets[source + 1]++;
+		}
+		for (int v = 0; v < numCores; v++) {
+			coreOffsets[v + 1] += coreOffsets[v];
+		}
+
+		edgeChains = kept.toArray();
+		final float[] weights = new float[edgeChains.length];
+		final int[] edgeRoads = new int[edgeChains.length];
+		for (int e = 0; e < edgeChains.length; e++) {
+			weights[e] = (float) chainCost(edgeChains[e]);
+			edgeRoads[e] = original.edgeRoadIndex(chainEdges[chainOffsets[edgeChains[e]]]);
+		}
+
+		final int[] xs = new int[numCores];
+		final int[] ys = new int[numCores];
+		for (int v = 0; v < numCores; v++) {
+			xs[v] = original.getX(originalVertices[v]);
+			ys[v] = original.getY(originalVertices[v]);
+		}
+
+		// Each compressed edge's road is the first road of its chain; use
+		// expand() or this class's path methods to get all of them
+		compressed = new RoadGraph(original.getRoads(), xs, ys, coreOffsets, targets.toArray(), weights, edgeRoads,
+				null);
+	}
+
+	/**
+	 * @param graph
+	 * @return graph with its chains collapsed
+	 */
+	public static CompressedGraph compress(RoadGraph graph) {
+		return new CompressedGraph(graph);
+	}
+
+	public RoadGraph getOriginal() {
+		return original;
+	}
+
+	/**
+	 * @return the graph of core vertices and chain edges. Its edges' roads are
+	 *         only the first road of each chain.
+	 */
+	public RoadGraph getCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return compressed vertex of original vertex v, or -1 if v was removed
+	 */
+	public int getCompressedVertex(int v) {
+		return coreIds[v];
+	}
+
+	/**
+	 * @return original vertex of compressed vertex v
+	 */
+	public int getOriginalVertex(int v) {
+		return originalVertices[v];
+	}
+
+	/**
+	 * @return original edge ids that compressed edge e stands for, in order
+	 */
+	public int[] expand(int e) {
+		int c = edgeChains[e];
+		return Arrays.copyOfRange(chainEdges, chainOffsets[c], chainOffsets[c + 1]);
+	}
+
+	/**
+	 * Optimal path between two points of the original graph, searching the
+	 * compressed graph. See {@link #getOptimalEdgePath(SearchWorkspace, int, int, AlgorithmType)}
+	 * for how the result relates to searching the original graph.
+	 */
+	public List<Road> getOptimalPath(RoadPoint startPoint, RoadPoint endPoint, AlgorithmType type) {
+		final int start = original.getVertex(startPoint);
+		final int end = original.getVertex(endPoint);
+		if (start < 0 || end < 0) {
+			return new ArrayList<>();
+		}
+
+		return Pathfinder.toRoads(original, getOptimalEdgePath(new SearchWorkspace(compressed), start, end, type));
+	}
+
+	/**
+	 * Optimal path between two original vertices, found by searching the
+	 * compressed graph. A start in the middle of a chain leaves by the chain's
+	 * end (either end of a two-way chain), an end in the middle of one is
+	 * entered from its start, and both in the same chain may just follow it.
+	 *
+	 * The path is as long as the one every weighted algorithm finds on the
+	 * original graph, though among equally long paths it may be another one.
+	 * BFS is not supported: it counts edges, and a compressed edge stands for a
+	 * whole chain.
+	 *
+	 * @param workspace
+	 *            search state for the compressed graph
+	 * @param start
+	 *            original start vertex
+	 * @param end
+	 *            original end vertex
+	 * @param type
+	 *            algorithm for the search between core vertices. Ends in two-way
+	 *            chains have two core vertices to go through, and those searches
+	 *            are always a multi-source A*.
+	 * @return original edge ids of the optimal path, empty if there is none
+	 * @throws IllegalArgumentException
+	 *             if type is BFS
+	 */
+	public int[] getOptimalEdgePath(SearchWorkspace workspace, int start, int end, AlgorithmType type) {
+		if (type == AlgorithmType.BFS) {
+			throw new IllegalArgumentException("BFS ignores edge weights, so it can't search a compressed graph");
+		}
+		if (start == end || !original.getConnectivity().canReach(start, end)) {
+			return NO_EDGES;
+		}
+
+		// Ways out of start's chains and into end's: core vertex, chain, and index
+		// of the first (for exits) or last (for entries) chain edge used
+		int[] exitVertices = new int[2];
+		int[] exitChains = new int[2];
+		int[] exitIndices = new int[2];
+		int numExits = 0;
+		if (coreIds[start] >= 0) {
+			exitVertices[numExits] = start;
+			exitChains[numExits++] = -1;
+		} else {
+			for (int i = 0; i < 2; i++) {
+				int c = i == 0 ? firstChain[start] : secondChain[start];
+				if (c >= 0) {
+					exitVertices[numExits] = chainTarget(c);
+					exitChains[numExits] = c;
+					exitIndices[numExits++] = (i == 0 ? firstIndex[start] : secondIndex[start]) + 1;
+				}
+			}
+		}
+
+		int[] entryVertices = new int[2];
+		int[] entryChains = new int[2];
+		int[] entryIndices = new int[2];
+		int numEntries = 0;
+		if (coreIds[end] >= 0) {
+			entryVertices[numEntries] = end;
+			entryChains[numEntries++] = -1;
+		} else {
+			for (int i = 0; i < 2; i++) {
+				int c = i == 0 ? firstChain[end] : secondChain[end];
+				if (c >= 0) {
+					entryVertices[numEntries] = chainSources[c];
+					entryChains[numEntries] = c;
+					entryIndices[numEntries++] = i == 0 ? firstIndex[end] : secondIndex[end];
+				}
+			}
+		}
+
+		double bestCost = Double.POSITIVE_INFINITY;
+		IntList best = null;
+
+		// Both in one chain, start first
+		for (int i = 0; i < numExits; i++) {
+			for (int j = 0; j < numEntries; j++) {
+				int c = exitChains[i];
+				if (c >= 0 && c == entryChains[j] && exitIndices[i] <= entryIndices[j]) {
+					double cost = costBetween(c, exitIndices[i], entryIndices[j]);
+					if (cost < bestCost) {
+						bestCost = cost;
+						best = new IntList();
+						addChainEdges(best, c, exitIndices[i], entryIndices[j]);
+					}
+				}
+			}
+		}
+
+		final double[] exitCosts = new double[numExits];
+		for (int i = 0; i < numExits; i++) {
+			int c = exitChains[i];
+			exitCosts[i] = c < 0 ? 0 : costBetween(c, exitIndices[i], chainLength(c) - 1);
+		}
+		final double[] entryCosts = new double[numEntries];
+		for (int j = 0; j < numEntries; j++) {
+			int c = entryChains[j];
+			entryCosts[j] = c < 0 ? 0 : costBetween(c, 0, entryIndices[j]);
+		}
+
+		// Between core vertices. A single pair uses the requested algorithm; with
+		// more, one search from all exits to all entries beats a search per pair.
+		int[] middle;
+		int exit = 0;
+		int entry = 0;
+		if (numExits == 1 && numEntries == 1) {
+			middle = exitVertices[0] == entryVertices[0] ? NO_EDGES
+					: Pathfinder.getOptimalEdgePath(workspace, null, coreIds[exitVertices[0]],
+							coreIds[entryVertices[0]], type);
+			if (middle.length == 0 && exitVertices[0] != entryVertices[0]) {
+				middle = null;
+			}
+		} else {
+			int[] chosen = new int[2];
+			middle = searchBetween(workspace, exitVertices, exitCosts, numExits, entryVertices, entryCosts,
+					numEntries, bestCost, chosen);
+			exit = chosen[0];
+			entry = chosen[1];
+		}
+
+		if (middle != null) {
+			double cost = exitCosts[exit] + entryCosts[entry];
+			for (int e : middle) {
+				cost += compressed.edgeWeight(e);
+			}
+
+			if (cost < bestCost) {
+				best = new IntList();
+				if (exitChains[exit] >= 0) {
+					addChainEdges(best, exitChains[exit], exitIndices[exit], chainLength(exitChains[exit]) - 1);
+				}
+				for (int e : middle) {
+					addChainEdges(best, edgeChains[e], 0, chainLength(edgeChains[e]) - 1);
+				}
+				if (entryChains[entry] >= 0) {
+					addChainEdges(best, entryChains[entry], 0, entryIndices[entry]);
+				}
+			}
+		}
+
+		return best == null ? NO_EDGES : best.toArray();
+	}
+
+	/**
+	 * A* on the compressed graph from several original core vertices, each
+	 * starting at its own cost, to whichever of several core vertices gives the
+	 * lowest total with its own cost added. The heuristic is the lowest straight
+	 * line distance plus cost over the targets, which stays consistent.
+	 *
+	 * @param bound
+	 *            cost of a path already known; only cheaper ones are looked for
+	 * @param chosen
+	 *            receives the index of the source and target used
+	 * @return compressed edges from the chosen source to the chosen target, or
+	 *         null if no path beats bound
+	 */
+	private int[] searchBetween(SearchWorkspace workspace, int[] sources, double[] sourceCosts, int numSources,
+			int[] targets, double[] targetCosts, int numTargets, double bound, int[] chosen) {
+		final SearchState state = workspace.state;
+		final IndexedHeap open = state.queue;
+		final SearchMonitor monitor = workspace.monitor;
+
+		final int[] coreTargets = new int[numTargets];
+		for (int j = 0; j < numTargets; j++) {
+			coreTargets[j] = coreIds[targets[j]];
+		}
+
+		state.reset();
+		for (int i = 0; i < numSources; i++) {
+			int v = coreIds[sources[i]];
+			if (sourceCosts[i] < state.dist(v)) {
+				state.reach(v, sourceCosts[i], -1);
+				open.pushOrDecrease(v, sourceCosts[i] + estimate(v, coreTargets, targetCosts, numTargets));
+			}
+		}
+
+		double bestCost = bound;
+		int bestTarget = -1;
+		int expanded = 0;
+		while (!open.isEmpty() && open.peekKey() < bestCost) {
+			final int cur = open.pop();
+			final double dist = state.dist(cur);
+			for (int j = 0; j < numTargets; j++) {
+				if (coreTargets[j] == cur && dist + targetCosts[j] < bestCost) {
+					bestCost = dist + targetCosts[j];
+					bestTarget = j;
+				}
+			}
+
+			if (monitor != null && ++expanded % SearchMonitor.INTERVAL == 0) {
+				SearchWorkspace.checkpoint(monitor, expanded, cur);
+			}
+
+			for (int e = compressed.edgeStart(cur); e < compressed.edgeEnd(cur); e++) {
+				int next = compressed.edgeTarget(e);
+				double nextDist = dist + compressed.edgeWeight(e);
+				if (nextDist < state.dist(next)) {
+					state.reach(next, nextDist, e);
+					open.pushOrDecrease(next, nextDist + estimate(next, coreTargets, targetCosts, numTargets));
+				}
+			}
+		}
+
+		if (bestTarget < 0) {
+			return null;
+		}
+
+		// Walk back to whichever source the path started at
+		IntList reversed = new IntList();
+		int cur = coreTargets[bestTarget];
+		while (state.parentEdge(cur) >= 0) {
+			reversed.add(state.parentEdge(cur));
+			cur = compressed.edgeSource(state.parentEdge(cur));
+		}
+
+		chosen[1] = bestTarget;
+		for (int i = 0; i < numSources; i++) {
+			if (coreIds[sources[i]] == cur && sourceCosts[i] == state.dist(cur)) {
+				chosen[0] = i;
+			}
+		}
+
+		int[] path = new int[reversed.size()];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = reversed.get(path.length - 1 - i);
+		}
+
+		return path;
+	}
+
+	private double estimate(int v, int[] targets, double[] targetCosts, int numTargets) {
+		double estimate = Double.POSITIVE_INFINITY;
+		for (int j = 0; j < numTargets; j++) {
+			estimate = Math.min(estimate, compressed.distance(v, targets[j]) + targetCosts[j]);
+		}
+
+		return estimate;
+	}
+
+	/**
+	 * @return whether v only passes traffic along a chain: one edge in from a
+	 *         and one out to b, or edges to and from both a and b, for some
+	 *         a != b
+	 */
+	private static boolean isPassThrough(RoadGraph graph, int v) {
+		final int out = graph.edgeEnd(v) - graph.edgeStart(v);
+		final int in = graph.inEdgeEnd(v) - graph.inEdgeStart(v);
+		if (out == 1 && in == 1) {
+			return graph.edgeTarget(graph.edgeStart(v)) != graph.edgeSource(graph.inEdge(graph.inEdgeStart(v)));
+		}
+		if (out == 2 && in == 2) {
+			// Edges are unique, so both in-neighbours being out-neighbours makes the
+			// sets equal
+			for (int i = graph.inEdgeStart(v); i < graph.inEdgeEnd(v); i++) {
+				if (graph.findEdge(v, graph.edgeSource(graph.inEdge(i))) < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Follow every edge out of core vertex u through chain vertices to the next
+	 * core vertex, recording each walk as a chain
+	 */
+	private void walkChains(int u, boolean[] core, IntList sources, IntList offsets, IntList edges) {
+		for (int e0 = original.edgeStart(u); e0 < original.edgeEnd(u); e0++) {
+			final int c = sources.size();
+			sources.add(u);
+
+			int prev = u;
+			int e = e0;
+			while (true) {
+				edges.add(e);
+				int cur = original.edgeTarget(e);
+				if (core[cur]) {
+					break;
+				}
+
+				int index = edges.size() - 1 - offsets.get(c);
+				if (firstChain[cur] < 0) {
+					firstChain[cur] = c;
+					firstIndex[cur] = index;
+				} else {
+					secondChain[cur] = c;
+					secondIndex[cur] = index;
+				}
+
+				// Carry on through the out edge that doesn't turn back
+				int next = original.edgeStart(cur);
+				if (original.edgeTarget(next) == prev && original.edgeEnd(cur) - next == 2) {
+					next++;
+				}
+				prev = cur;
+				e = next;
+			}
+			offsets.add(edges.size());
+		}
+	}
+
+	private int chainTarget(int c) {
+		return original.edgeTarget(chainEdges[chainOffsets[c + 1] - 1]);
+	}
+
+	private int chainLength(int c) {
+		return chainOffsets[c + 1] - chainOffsets[c];
+	}
+
+	private double chainCost(int c) {
+		return chainCosts[chainOffsets[c + 1] - 1];
+	}
+
+	// Length of chain c's edges from index first to index last, both included
+	private double costBetween(int c, int first, int last) {
+		if (first > last) {
+			return 0;
+		}
+
+		double before = first == 0 ? 0 : chainCosts[chainOffsets[c] + first - 1];
+		return chainCosts[chainOffsets[c] + last] - before;
+	}
+
+	private void addChainEdges(IntList path, int c, int first, int last) {
+		for (int i = first; i <= last; i++) {
+			path.add(chainEdges[chainOffsets[c] + i]);
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Strongly connected components of a road graph and the condensation DAG
+ * between them, for telling whether one vertex can reach another without
+ * searching the graph.
+ *
+ * Components are numbered in the order Tarjan's algorithm completes them,
+ * which is a reverse topological order of the condensation: every component
+ * reachable from component c has a number no greater than c. Most unreachable
+ * pairs are rejected by that order or by the lowest component each one
+ * reaches, in O(1); the rest take a search of the condensation, which is far
+ * smaller than the graph.
+ *
+ * Instances are immutable and shared by all threads searching the graph, see
+ * {@link RoadGraph#getConnectivity()}.
+ */
+public class Connectivity {
+	// component[v] is the component of vertex v
+	private final int[] component;
+	private final int numComponents;
+
+	// Condensation DAG in CSR form: dagTargets[dagOffsets[c]..dagOffsets[c + 1]]
+	// are the components with an edge from c, each lower than c
+	private final int[] dagOffsets;
+	private final int[] dagTargets;
+
+	// Lowest numbered component reachable from each component
+	private final int[] lowestReachable;
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch(numComponents);
+		}
+	};
+
+	/**
+	 * Find the components of graph
+	 *
+	 * @param graph
+	 */
+	public Connectivity(RoadGraph graph) {
+		final int n = graph.getVertexCount();
+		this.component = new int[n];
+		this.numComponents = findComponents(graph, component);
+
+		// Condensation edges, packed as (source << 32 | target) so that sorting
+		// groups them by source and brings duplicates together
+		long[] packed = new long[graph.getEdgeCount()];
+		int numPacked = 0;
+		for (int e = 0; e < graph.getEdgeCount(); e++) {
+			int from = component[graph.edgeSource(e)];
+			int to = component[graph.edgeTarget(e)];
+			if (from != to) {
+				packed[numPacked++] = ((long) from << 32) | to;
+			}
+		}
+		Arrays.sort(packed, 0, numPacked);
+
+		this.dagOffsets = new int[numComponents + 1];
+		int[] targets = new int[numPacked];
+		int numEdges = 0;
+		for (int i = 0; i < numPacked; i++) {
+			if (i == 0 || packed[i] != packed[i - 1]) {
+				targets[numEdges++] = (int) packed[i];
+				dagOffsets[(int) (packed[i] >>> 32) + 1]++;
+			}
+		}
+		for (int c = 0; c < numComponents; c++) {
+			dagOffsets[c + 1] += dagOffsets[c];
+		}
+		this.dagTargets = Arrays.copyOf(targets, numEdges);
+
+		// Successors are numbered lower, so they're done before their predecessors
+		this.lowestReachable = new int[numComponents];
+		for (int c = 0; c < numComponents; c++) {
+			int lowest = c;
+			for (int i = dagOffsets[c]; i < dagOffsets[c + 1]; i++) {
+				lowest = Math.min(lowest, lowestReachable[dagTargets[i]]);
+			}
+			lowestReachable[c] = lowest;
+		}
+	}
+
+	/**
+	 * @return component of vertex v
+	 */
+	public int getComponent(int v) {
+		return component[v];
+	}
+
+	public int getComponentCount() {
+		return numComponents;
+	}
+
+	/**
+	 * @return whether u and v can reach each other
+	 */
+	public boolean isStronglyConnected(int u, int v) {
+		return component[u] == component[v];
+	}
+
+	/**
+	 * @return whether there is a path from vertex u to vertex v
+	 */
+	public boolean canReach(int u, int v) {
+		final int from = component[u];
+		final int to = component[v];
+		if (from == to) {
+			return true;
+		}
+		if (to > from || to < lowestReachable[from]) {
+			return false;
+		}
+
+		// Depth first search of the condensation, skipping components numbered
+		// below the target's since they can't lead to it
+		final Scratch s = scratch.get();
+		final int stamp = s.nextStamp();
+		int top = 0;
+		s.stack[top++] = from;
+		s.visited[from] = stamp;
+		while (top > 0) {
+			int c = s.stack[--top];
+			for (int i = dagOffsets[c]; i < dagOffsets[c + 1]; i++) {
+				int next = dagTargets[i];
+				if (next == to) {
+					return true;
+				}
+				if (next > to && lowestReachable[next] <= to && s.visited[next] != stamp) {
+					s.visited[next] = stamp;
+					s.stack[top++] = next;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Iterative Tarjan. An explicit call stack of (vertex, next edge) replaces
+	 * the recursion, which would overflow the thread stack on long roads.
+	 *
+	 * @param component
+	 *            receives the component of each vertex
+	 * @return number of components
+	 */
+	private static int findComponents(RoadGraph graph, int[] component) {
+		final int n = graph.getVertexCount();
+
+		// Discovery order and lowest discovery order reachable through the DFS
+		// subtree, -1 for undiscovered vertices. A vertex is on the component
+		// stack while it's discovered but has no component.
+		final int[] index = new int[n];
+		final int[] low = new int[n];
+		Arrays.fill(index, -1);
+		Arrays.fill(component, -1);
+
+		final int[] componentStack = new int[n];
+		final int[] callVertex = new int[n];
+		final int[] callEdge = new int[n];
+		int componentTop = 0;
+		int nextIndex = 0;
+		int numComponents = 0;
+
+		for (int root = 0; root < n; root++) {
+			if (index[root] >= 0) {
+				continue;
+			}
+
+			int callTop = 0;
+			index[root] = low[root] = nextIndex++;
+			componentStack[componentTop++] = root;
+			callVertex[callTop] = root;
+			callEdge[callTop++] = graph.edgeStart(root);
+
+			while (callTop > 0) {
+				final int v = callVertex[callTop - 1];
+				if (callEdge[callTop - 1] < graph.edgeEnd(v)) {
+					int w = graph.edgeTarget(callEdge[callTop - 1]++);
+					if (index[w] < 0) {
+						// "Recurse" into w
+						index[w] = low[w] = nextIndex++;
+						componentStack[componentTop++] = w;
+						callVertex[callTop] = w;
+						callEdge[callTop++] = graph.edgeStart(w);
+					} else if (component[w] < 0) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+					continue;
+				}
+
+				// Done with v. If nothing below it reaches higher up, v is the root of a
+				// component made of everything above it on the component stack.
+				callTop--;
+				if (low[v] == index[v]) {
+					int w;
+					do {
+						w = componentStack[--componentTop];
+						component[w] = numComponents;
+					} while (w != v);
+					numComponents++;
+				}
+				if (callTop > 0) {
+					int parent = callVertex[callTop - 1];
+					low[parent] = Math.min(low[parent], low[v]);
+				}
+			}
+		}
+
+		return numComponents;
+	}
+
+	/**
+	 * Per-thread state for searching the condensation
+	 */
+	private static final class Scratch {
+		final int[] visited;
+		final int[] stack;
+		int stamp;
+
+		Scratch(int numComponents) {
+			visited = new int[numComponents];
+			stack = new int[numComponents];
+		}
+
+		int nextStamp() {
+			if (++stamp == 0) {
+				// Wrapped around, old marks could collide
+				Arrays.fill(visited, 0);
+				stamp = 1;
+			}
+
+			return stamp;
+		}
+	}
+}
@@ -0,0 +1,628 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import models.Road;
+import models.RoadPoint;
+
+/**
+ * Contraction hierarchy over a road graph. Preprocessing contracts vertices one
+ * at a time in order of importance, adding a shortcut arc u -> w whenever
+ * removing v would destroy the only shortest path u -> v -> w. Arcs keep their
+ * direction, so one-way roads are handled like any other directed edge.
+ *
+ * A query is then a bidirectional Dijkstra where the forward search only climbs
+ * to higher ranked vertices over outgoing arcs and the backward search only
+ * climbs over incoming arcs. Both searches stay small, and shortcuts are
+ * recursively unpacked into the original graph edges at the end.
+ *
+ * Arc ids below graph.getEdgeCount() are the original graph edges; the rest are
+ * shortcuts.
+ */
+public class ContractionHierarchy {
+	private static final int FILE_MAGIC = 0x43484731;
+	private static final int FILE_VERSION = 1;
+
+	// A witness search gives up after settling this many vertices, in which case
+	// the shortcut is added to be safe
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final RoadGraph graph;
+
+	// Contraction order of each vertex
+	private final int[] rank;
+
+	// Shortcut arc graph.getEdgeCount() + i runs shortcutFrom[i] ->
+	// shortcutTo[i] and stands for arc shortcutFirst[i] followed by arc
+	// shortcutSecond[i]
+	private final int[] shortcutFrom;
+	private final int[] shortcutTo;
+	private final double[] shortcutWeight;
+	private final int[] shortcutFirst;
+	private final int[] shortcutSecond;
+
+	// upArcs[upOffsets[v]..upOffsets[v + 1]] leave v towards higher ranked
+	// vertices, downArcs[downOffsets[v]..downOffsets[v + 1]] enter v from higher
+	// ranked vertices
+	private final int[] upOffsets;
+	private final int[] upArcs;
+	private final int[] downOffsets;
+	private final int[] downArcs;
+
+	private ContractionHierarchy(RoadGraph graph, int[] rank, int[] shortcutFrom, int[] shortcutTo,
+			double[] shortcutWeight, int[] shortcutFirst, int[] shortcutSecond) {
+		this.graph = graph;
+		this.rank = rank;
+		this.shortcutFrom = shortcutFrom;
+		this.shortcutTo = shortcutTo;
+		this.shortcutWeight = shortcutWeight;
+		this.shortcutFirst = shortcutFirst;
+		this.shortcutSecond = shortcutSecond;
+
+		final int n = graph.getVertexCount();
+		final int numArcs = graph.getEdgeCount() + shortcutFrom.length;
+
+		// Count, prefix sum and scatter every arc into exactly one of the two
+		// search graphs
+		upOffsets = new int[n + 1];
+		downOffsets = new int[n + 1];
+		for (int a = 0; a < numArcs; a++) {
+			int from = arcFrom(a);
+			int to = arcTo(a);
+			if (rank[from] < rank[to]) {
+				upOffsets[from + 1]++;
+			} else {
+				downOffsets[to + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			upOffsets[v + 1] += upOffsets[v];
+			downOffsets[v + 1] += downOffsets[v];
+		}
+
+		upArcs = new int[upOffsets[n]];
+		downArcs = new int[downOffsets[n]];
+		final int[] upFill = Arrays.copyOf(upOffsets, n);
+		final int[] downFill = Arrays.copyOf(downOffsets, n);
+		for (int a = 0; a < numArcs; a++) {
+			int from = arcFrom(a);
+			int to = arcTo(a);
+			if (rank[from] < rank[to]) {
+				upArcs[upFill[from]++] = a;
+			} else {
+				downArcs[downFill[to]++] = a;
+			}
+		}
+	}
+
+	/**
+	 * Contract every vertex of the graph
+	 *
+	 * @param graph
+	 * @return the contraction hierarchy
+	 */
+	public static ContractionHierarchy build(RoadGraph graph) {
+		return new Contractor(graph).contract();
+	}
+
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	public int getShortcutCount() {
+		return shortcutFrom.length;
+	}
+
+	/**
+	 * @return a new query with its own search state. Queries are not thread safe,
+	 *         but any number of them can share one hierarchy.
+	 */
+	public Query newQuery() {
+		return new Query();
+	}
+
+	private int arcFrom(int a) {
+		int e = graph.getEdgeCount();
+		return a < e ? graph.edgeSource(a) : shortcutFrom[a - e];
+	}
+
+	private int arcTo(int a) {
+		int e = graph.getEdgeCount();
+		return a < e ? graph.edgeTarget(a) : shortcutTo[a - e];
+	}
+
+	private double arcWeight(int a) {
+		int e = graph.getEdgeCount();
+		return a < e ? graph.edgeWeight(a) : shortcutWeight[a - e];
+	}
+
+	/**
+	 * Write the vertex order and shortcuts to a file. The graph itself is not
+	 * included; {@link #load(File, RoadGraph)} needs the same graph.
+	 *
+	 * @param outFile
+	 * @throws IOException
+	 */
+	public void save(File outFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(outFile)))) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(graph.getVertexCount());
+			out.writeInt(graph.getEdgeCount());
+			for (int r : rank) {
+				out.writeInt(r);
+			}
+
+			out.writeInt(shortcutFrom.length);
+			for (int i = 0; i < shortcutFrom.length; i++) {
+				out.writeInt(shortcutFrom[i]);
+				out.writeInt(shortcutTo[i]);
+				out.writeDouble(shortcutWeight[i]);
+				out.writeInt(shortcutFirst[i]);
+				out.writeInt(shortcutSecond[i]);
+			}
+		}
+	}
+
+	/**
+	 * Read a hierarchy written by {@link #save(File)}
+	 *
+	 * @param inFile
+	 * @param graph
+	 *            the graph the hierarchy was built from
+	 * @return the contraction hierarchy
+	 * @throws IOException
+	 *             if the file is not a hierarchy or was built for another graph
+	 */
+	public static ContractionHierarchy load(File inFile, RoadGraph graph) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)))) {
+			if (in.readInt() != FILE_MAGIC) {
+				throw new IOException("Not a contraction hierarchy file: " + inFile);
+			}
+
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported contraction hierarchy version: " + version);
+			}
+
+			if (in.readInt() != graph.getVertexCount() || in.readInt() != graph.getEdgeCount()) {
+				throw new IOException("Contraction hierarchy " + inFile + " was built for a different graph");
+			}
+
+			int[] rank = new int[graph.getVertexCount()];
+			for (int v = 0; v < rank.length; v++) {
+				rank[v] = in.readInt();
+			}
+
+			int numShortcuts = in.readInt();
+			int[] from = new int[numShortcuts];
+			int[] to = new int[numShortcuts];
+			double[] weight = new double[numShortcuts];
+			int[] first = new int[numShortcuts];
+			int[] second = new int[numShortcuts];
+			for (int i = 0; i < numShortcuts; i++) {
+				from[i] = in.readInt();
+				to[i] = in.readInt();
+				weight[i] = in.readDouble();
+				first[i] = in.readInt();
+				second[i] = in.readInt();
+			}
+
+			return new ContractionHierarchy(graph, rank, from, to, weight, first, second);
+		}
+	}
+
+	/**
+	 * Reusable point-to-point query state. Distances are invalidated between
+	 * searches with a generation stamp, so a search only costs as much as the
+	 * vertices it touches.
+	 */
+	public class Query {
+		private final IndexedHeap forwardQueue;
+		private final IndexedHeap backwardQueue;
+		private final double[] forwardDist;
+		private final double[] backwardDist;
+		private final int[] forwardParentArc;
+		private final int[] backwardParentArc;
+
+		// forwardDist[v] is valid only if forwardStamp[v] == generation, same for
+		// backward
+		private final int[] forwardStamp;
+		private final int[] backwardStamp;
+		private int generation;
+
+		private final IntList unpackStack = new IntList();
+		private final IntList forwardArcs = new IntList();
+
+		private Query() {
+			int n = graph.getVertexCount();
+			forwardQueue = new IndexedHeap(n);
+			backwardQueue = new IndexedHeap(n);
+			forwardDist = new double[n];
+			backwardDist = new double[n];
+			forwardParentArc = new int[n];
+			backwardParentArc = new int[n];
+			forwardStamp = new int[n];
+			backwardStamp = new int[n];
+		}
+
+		/**
+		 * Compute and return the optimal path from the start to the end point
+		 *
+		 * @param startPoint
+		 * @param endPoint
+		 * @return the roads of the optimal path in order, empty if there is none
+		 */
+		public List<Road> getOptimalPath(RoadPoint startPoint, RoadPoint endPoint) {
+			int start = graph.getVertex(startPoint);
+			int end = graph.getVertex(endPoint);
+			if (start < 0 || end < 0) {
+				return Pathfinder.toRoads(graph, new int[0]);
+			}
+
+			return Pathfinder.toRoads(graph, search(start, end));
+		}
+
+		/**
+		 * @param startPoint
+		 * @param endPoint
+		 * @return edge ids of the optimal path in order, empty if there is none
+		 */
+		public int[] search(int startPoint, int endPoint) {
+			if (startPoint == endPoint) {
+				return new int[0];
+			}
+			reset();
+
+			forwardStamp[startPoint] = generation;
+			forwardDist[startPoint] = 0;
+			forwardParentArc[startPoint] = -1;
+			forwardQueue.push(startPoint, 0);
+			backwardStamp[endPoint] = generation;
+			backwardDist[endPoint] = 0;
+			backwardParentArc[endPoint] = -1;
+			backwardQueue.push(endPoint, 0);
+
+			double best = Double.POSITIVE_INFINITY;
+			int meeting = -1;
+
+			// Each side keeps going until its queue can't beat the best path
+			while (true) {
+				boolean forward = !forwardQueue.isEmpty() && forwardQueue.peekKey() < best;
+				boolean backward = !backwardQueue.isEmpty() && backwardQueue.peekKey() < best;
+				if (!forward && !backward) {
+					break;
+				}
+
+				if (forward && (!backward || forwardQueue.peekKey() <= backwardQueue.peekKey())) {
+					int cur = forwardQueue.pop();
+					if (backwardStamp[cur] == generation && forwardDist[cur] + backwardDist[cur] < best) {
+						best = forwardDist[cur] + backwardDist[cur];
+						meeting = cur;
+					}
+
+					for (int i = upOffsets[cur]; i < upOffsets[cur + 1]; i++) {
+						int a = upArcs[i];
+						int neighbor = arcTo(a);
+						double dist = forwardDist[cur] + arcWeight(a);
+						if (forwardStamp[neighbor] != generation || dist < forwardDist[neighbor]) {
+							forwardStamp[neighbor] = generation;
+							forwardDist[neighbor] = dist;
+							forwardParentArc[neighbor] = a;
+							forwardQueue.pushOrDecrease(neighbor, dist);
+						}
+					}
+				} else {
+					int cur = backwardQueue.pop();
+					if (forwardStamp[cur] == generation && forwardDist[cur] + backwardDist[cur] < best) {
+						best = forwardDist[cur] + backwardDist[cur];
+						meeting = cur;
+					}
+
+					for (int i = downOffsets[cur]; i < downOffsets[cur + 1]; i++) {
+						int a = downArcs[i];
+						int neighbor = arcFrom(a);
+						double dist = backwardDist[cur] + arcWeight(a);
+						if (backwardStamp[neighbor] != generation || dist < backwardDist[neighbor]) {
+							backwardStamp[neighbor] = generation;
+							backwardDist[neighbor] = dist;
+							backwardParentArc[neighbor] = a;
+							backwardQueue.pushOrDecrease(neighbor, dist);
+						}
+					}
+				}
+			}
+
+			if (meeting < 0) {
+				return new int[0];
+			}
+
+			return unpackPath(startPoint, endPoint, meeting);
+		}
+
+		private void reset() {
+			forwardQueue.clear();
+			backwardQueue.clear();
+			generation++;
+			if (generation == 0) {
+				Arrays.fill(forwardStamp, 0);
+				Arrays.fill(backwardStamp, 0);
+				generation = 1;
+			}
+		}
+
+		private int[] unpackPath(int startPoint, int endPoint, int meeting) {
+			IntList path = new IntList();
+
+			// The forward arcs are found from the meeting point backwards
+			forwardArcs.clear();
+			for (int v = meeting; v != startPoint; v = arcFrom(forwardParentArc[v])) {
+				forwardArcs.add(forwardParentArc[v]);
+			}
+			for (int i = forwardArcs.size() - 1; i >= 0; i--) {
+				unpackArc(forwardArcs.get(i), path);
+			}
+
+			for (int v = meeting; v != endPoint; v = arcTo(backwardParentArc[v])) {
+				unpackArc(backwardParentArc[v], path);
+			}
+
+			return path.toArray();
+		}
+
+		// Expand a shortcut into graph edges in order, without recursion
+		private void unpackArc(int arc, IntList path) {
+			final int numEdges = graph.getEdgeCount();
+			unpackStack.clear();
+			unpackStack.add(arc);
+			while (unpackStack.size() > 0) {
+				int a = unpackStack.removeLast();
+				if (a < numEdges) {
+					path.add(a);
+				} else {
+					unpackStack.add(shortcutSecond[a - numEdges]);
+					unpackStack.add(shortcutFirst[a - numEdges]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Preprocessing state: a dynamic copy of the graph's arcs that grows as
+	 * shortcuts are added
+	 */
+	private static class Contractor {
+		private final RoadGraph graph;
+		private final int numVertices;
+		private final int numEdges;
+
+		// Outgoing and incoming arc ids of every vertex, including arcs to already
+		// contracted vertices, which are skipped when read
+		private final IntList[] outArcs;
+		private final IntList[] inArcs;
+
+		private final IntList shortcutFrom = new IntList();
+		private final IntList shortcutTo = new IntList();
+		private final IntList shortcutFirst = new IntList();
+		private final IntList shortcutSecond = new IntList();
+		private double[] shortcutWeight = new double[64];
+
+		private final boolean[] contracted;
+		private final int[] contractedNeighbors;
+
+		// Witness search state, invalidated with a generation stamp
+		private final IndexedHeap witnessQueue;
+		private final double[] witnessDist;
+		private final int[] witnessStamp;
+		private int witnessGeneration;
+
+		Contractor(RoadGraph graph) {
+			this.graph = graph;
+			this.numVertices = graph.getVertexCount();
+			this.numEdges = graph.getEdgeCount();
+
+			outArcs = new IntList[numVertices];
+			inArcs = new IntList[numVertices];
+			for (int v = 0; v < numVertices; v++) {
+				outArcs[v] = new IntList(graph.edgeEnd(v) - graph.edgeStart(v));
+				inArcs[v] = new IntList(graph.inEdgeEnd(v) - graph.inEdgeStart(v));
+				for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+					outArcs[v].add(e);
+				}
+				for (int i = graph.inEdgeStart(v); i < graph.inEdgeEnd(v); i++) {
+					inArcs[v].add(graph.inEdge(i));
+				}
+			}
+
+			contracted = new boolean[numVertices];
+			contractedNeighbors = new int[numVertices];
+			witnessQueue = new IndexedHeap(numVertices);
+			witnessDist = new double[numVertices];
+			witnessStamp = new int[numVertices];
+		}
+
+		ContractionHierarchy contract() {
+			final int[] rank = new int[numVertices];
+
+			// Contract the least important vertex first. Priorities are only
+			// refreshed lazily when a vertex reaches the top of the queue.
+			IndexedHeap order = new IndexedHeap(numVertices);
+			for (int v = 0; v < numVertices; v++) {
+				order.push(v, priority(v));
+			}
+
+			int nextRank = 0;
+			while (!order.isEmpty()) {
+				int v = order.pop();
+				double priority = priority(v);
+				if (!order.isEmpty() && priority > order.peekKey()) {
+					order.push(v, priority);
+					continue;
+				}
+
+				addShortcuts(v, true);
+				contracted[v] = true;
+				rank[v] = nextRank++;
+
+				IntList out = outArcs[v];
+				for (int i = 0; i < out.size(); i++) {
+					contractedNeighbors[arcTo(out.get(i))]++;
+				}
+				IntList in = inArcs[v];
+				for (int i = 0; i < in.size(); i++) {
+					contractedNeighbors[arcFrom(in.get(i))]++;
+				}
+			}
+
+			return new ContractionHierarchy(graph, rank, shortcutFrom.toArray(), shortcutTo.toArray(),
+					Arrays.copyOf(shortcutWeight, shortcutFrom.size()), shortcutFirst.toArray(),
+					shortcutSecond.toArray());
+		}
+
+		// Edge difference plus a term that spreads contraction evenly over the graph
+		private double priority(int v) {
+			int degree = 0;
+			IntList out = outArcs[v];
+			for (int i = 0; i < out.size(); i++) {
+				if (!contracted[arcTo(out.get(i))]) {
+					degree++;
+				}
+			}
+			IntList in = inArcs[v];
+			for (int i = 0; i < in.size(); i++) {
+				if (!contracted[arcFrom(in.get(i))]) {
+					degree++;
+				}
+			}
+
+			return addShortcuts(v, false) - degree + contractedNeighbors[v];
+		}
+
+		/**
+		 * Find the shortcuts needed to contract v
+		 *
+		 * @param v
+		 * @param add
+		 *            whether to add them or only count them
+		 * @return the number of shortcuts
+		 */
+		private int addShortcuts(int v, boolean add) {
+			final IntList out = outArcs[v];
+			final IntList in = inArcs[v];
+
+			double maxOut = 0;
+			for (int j = 0; j < out.size(); j++) {
+				int a = out.get(j);
+				if (!contracted[arcTo(a)]) {
+					maxOut = Math.max(maxOut, arcWeight(a));
+				}
+			}
+
+			int count = 0;
+			for (int i = 0; i < in.size(); i++) {
+				int first = in.get(i);
+				int u = arcFrom(first);
+				if (contracted[u]) {
+					continue;
+				}
+
+				double firstWeight = arcWeight(first);
+				witnessSearch(u, v, firstWeight + maxOut);
+
+				for (int j = 0; j < out.size(); j++) {
+					int second = out.get(j);
+					int w = arcTo(second);
+					if (contracted[w] || w == u) {
+						continue;
+					}
+
+					double weight = firstWeight + arcWeight(second);
+					if (witnessDistance(w) > weight) {
+						count++;
+						if (add) {
+							addShortcut(u, w, weight, first, second);
+						}
+					}
+				}
+			}
+
+			return count;
+		}
+
+		// Bounded Dijkstra from source over uncontracted vertices other than v
+		private void witnessSearch(int source, int v, double maxDist) {
+			witnessQueue.clear();
+			witnessGeneration++;
+			if (witnessGeneration == 0) {
+				Arrays.fill(witnessStamp, 0);
+				witnessGeneration = 1;
+			}
+
+			witnessStamp[source] = witnessGeneration;
+			witnessDist[source] = 0;
+			witnessQueue.push(source, 0);
+
+			int settled = 0;
+			while (!witnessQueue.isEmpty() && witnessQueue.peekKey() <= maxDist
+					&& settled++ < WITNESS_SETTLE_LIMIT) {
+				int cur = witnessQueue.pop();
+				IntList out = outArcs[cur];
+				for (int i = 0; i < out.size(); i++) {
+					int a = out.get(i);
+					int neighbor = arcTo(a);
+					if (neighbor == v || contracted[neighbor]) {
+						continue;
+					}
+
+					double dist = witnessDist[cur] + arcWeight(a);
+					if (witnessDistance(neighbor) > dist) {
+						witnessStamp[neighbor] = witnessGeneration;
+						witnessDist[neighbor] = dist;
+						witnessQueue.pushOrDecrease(neighbor, dist);
+					}
+				}
+			}
+		}
+
+		private double witnessDistance(int v) {
+			return witnessStamp[v] == witnessGeneration ? witnessDist[v] : Double.POSITIVE_INFINITY;
+		}
+
+		private void addShortcut(int from, int to, double weight, int first, int second) {
+			int arc = numEdges + shortcutFrom.size();
+			if (shortcutFrom.size() == shortcutWeight.length) {
+				shortcutWeight = Arrays.copyOf(shortcutWeight, shortcutWeight.length * 2);
+			}
+
+			shortcutWeight[shortcutFrom.size()] = weight;
+			shortcutFrom.add(from);
+			shortcutTo.add(to);
+			shortcutFirst.add(first);
+			shortcutSecond.add(second);
+			outArcs[from].add(arc);
+			inArcs[to].add(arc);
+		}
+
+		private int arcFrom(int a) {
+			return a < numEdges ? graph.edgeSource(a) : shortcutFrom.get(a - numEdges);
+		}
+
+		private int arcTo(int a) {
+			return a < numEdges ? graph.edgeTarget(a) : shortcutTo.get(a - numEdges);
+		}
+
+		private double arcWeight(int a) {
+			return a < numEdges ? graph.edgeWeight(a) : shortcutWeight[a - numEdges];
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Immutable world coordinates of a graph's vertices, indexed by vertex id. The
+ * coordinates are copied once into a direct buffer outside the Java heap, x
+ * and y of a vertex side by side, so a vertex costs 8 bytes and no object. The
+ * store never changes after construction; drawing on screen goes through a
+ * {@link Viewport} instead of rewriting coordinates.
+ */
+public final class Coordinates {
+	private static final int BYTES_PER_VERTEX = 8;
+
+	private final ByteBuffer buffer;
+	private final int size;
+
+	/**
+	 * @param xs
+	 *            x coordinate of each vertex
+	 * @param ys
+	 *            y coordinate of each vertex
+	 */
+	public Coordinates(int[] xs, int[] ys) {
+		if (xs.length != ys.length) {
+			throw new IllegalArgumentException("Got " + xs.length + " x coordinates but " + ys.length + " y coordinates");
+		}
+
+		size = xs.length;
+		buffer = ByteBuffer.allocateDirect(size * BYTES_PER_VERTEX).order(ByteOrder.nativeOrder());
+		for (int v = 0; v < size; v++) {
+			buffer.putInt(v * BYTES_PER_VERTEX, xs[v]);
+			buffer.putInt(v * BYTES_PER_VERTEX + 4, ys[v]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getX(int v) {
+		return buffer.getInt(v * BYTES_PER_VERTEX);
+	}
+
+	public int getY(int v) {
+		return buffer.getInt(v * BYTES_PER_VERTEX + 4);
+	}
+
+	/**
+	 * @return a copy of every vertex's x coordinate
+	 */
+	public int[] xs() {
+		int[] xs = new int[size];
+		for (int v = 0; v < size; v++) {
+			xs[v] = getX(v);
+		}
+
+		return xs;
+	}
+
+	/**
+	 * @return a copy of every vertex's y coordinate
+	 */
+	public int[] ys() {
+		int[] ys = new int[size];
+		for (int v = 0; v < size; v++) {
+			ys[v] = getY(v);
+		}
+
+		return ys;
+	}
+}
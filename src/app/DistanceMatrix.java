@@ -0,0 +1,137 @@
+package app;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many-to-many shortest path distances. One Dijkstra search per source (or per
+ * target, searching backwards, when there are fewer targets) answers a whole
+ * row of the matrix, and stops as soon as every vertex on the other side is
+ * settled. The searches run in parallel on a fork-join pool.
+ */
+public class DistanceMatrix {
+	// Searches per task
+	private static final int BLOCK_SIZE = 4;
+
+	private DistanceMatrix() {
+	}
+
+	/**
+	 * Compute the distance from every source to every target on the common
+	 * fork-join pool
+	 *
+	 * @param graph
+	 * @param sources
+	 * @param targets
+	 * @return row-major matrix: the distance from sources[i] to targets[j] is at
+	 *         i * targets.length + j, infinite if there is no path
+	 */
+	public static float[] compute(RoadGraph graph, int[] sources, int[] targets) {
+		float[] matrix = new float[sources.length * targets.length];
+		compute(graph, sources, targets, FloatBuffer.wrap(matrix), ForkJoinPool.commonPool());
+		return matrix;
+	}
+
+	/**
+	 * Compute the distance from every source to every target into out, which
+	 * may be a view of a memory-mapped file for matrices too large for the heap
+	 *
+	 * @param graph
+	 * @param sources
+	 * @param targets
+	 * @param out
+	 *            receives the row-major matrix at absolute indices
+	 *            [0, sources.length * targets.length); its position is unchanged
+	 * @param pool
+	 *            pool to run the searches on
+	 */
+	public static void compute(final RoadGraph graph, int[] sources, int[] targets, final FloatBuffer out,
+			ForkJoinPool pool) {
+		if ((long) sources.length * targets.length > out.capacity()) {
+			throw new IllegalArgumentException("Output holds " + out.capacity() + " entries but the matrix has "
+					+ (long) sources.length * targets.length);
+		}
+
+		if (sources.length == 0 || targets.length == 0) {
+			return;
+		}
+
+		// Search from whichever side has fewer vertices
+		final boolean reverse = targets.length < sources.length;
+		final int[] roots = reverse ? targets : sources;
+		final int[] others = reverse ? sources : targets;
+
+		final boolean[] isOther = new boolean[graph.getVertexCount()];
+		int distinct = 0;
+		for (int v : others) {
+			if (!isOther[v]) {
+				isOther[v] = true;
+				distinct++;
+			}
+		}
+
+		final ThreadLocal<SearchState> states = new ThreadLocal<SearchState>() {
+
+			@Override
+			protected SearchState initialValue() {
+				return new SearchState(graph.getVertexCount());
+			}
+		};
+
+		pool.invoke(new Rows(graph, roots, others, isOther, distinct, reverse, states, out, 0, roots.length));
+	}
+
+	/**
+	 * Searches from roots [from, to), splitting in halves down to BLOCK_SIZE
+	 */
+	private static class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RoadGraph graph;
+		private final int[] roots;
+		private final int[] others;
+		private final boolean[] isOther;
+		private final int distinct;
+		private final boolean reverse;
+		private final ThreadLocal<SearchState> states;
+		private final FloatBuffer out;
+		private final int from;
+		private final int to;
+
+		Rows(RoadGraph graph, int[] roots, int[] others, boolean[] isOther, int distinct, boolean reverse,
+				ThreadLocal<SearchState> states, FloatBuffer out, int from, int to) {
+			this.graph = graph;
+			this.roots = roots;
+			this.others = others;
+			this.isOther = isOther;
+			this.distinct = distinct;
+			this.reverse = reverse;
+			this.states = states;
+			this.out = out;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > BLOCK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Rows(graph, roots, others, isOther, distinct, reverse, states, out, from, mid),
+						new Rows(graph, roots, others, isOther, distinct, reverse, states, out, mid, to));
+				return;
+			}
+
+			final SearchState state = states.get();
+			for (int r = from; r < to; r++) {
+				ShortestPathTree.run(graph, state, roots[r], reverse, isOther, distinct);
+
+				// A reverse search from a target fills a column instead of a row
+				for (int j = 0; j < others.length; j++) {
+					int index = reverse ? j * roots.length + r : r * others.length + j;
+					out.put(index, (float) state.dist(others[j]));
+				}
+			}
+		}
+	}
+}
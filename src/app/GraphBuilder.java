@@ -0,0 +1,379 @@
+package app;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import models.Road;
+
+/**
+ * Builds the CSR arrays of a {@link RoadGraph} from road columns in a few
+ * passes that each split their work into chunks run on the common fork-join
+ * pool:
+ *
+ * 1. Road endpoints are hashed on their coordinates and grouped by the top bits
+ * of the hash with a counting sort, so that each group can be deduplicated
+ * into vertices with its own open addressing table, in parallel.
+ *
+ * 2. Vertex ids are handed out in order of each vertex's first appearance in
+ * the road list, the same ids a sequential build gives, whatever the
+ * parallelism.
+ *
+ * 3. Edges are counted and scattered into their source vertex's slot range,
+ * then each vertex's edges are sorted by target and compacted, which drops
+ * duplicate edges and self loops.
+ */
+final class GraphBuilder {
+	// Chunks per unit of parallelism, so that uneven chunks even out
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final RoadTable table;
+	private final int numChunks;
+
+	// Endpoint k is the start (k even) or end (k odd) of road k / 2
+	private final int numEndpoints;
+
+	private GraphBuilder(RoadTable table, int parallelism) {
+		this.table = table;
+		this.numChunks = parallelism <= 1 ? 1 : parallelism * CHUNKS_PER_THREAD;
+		this.numEndpoints = table.size() * 2;
+	}
+
+	/**
+	 * @param roads
+	 *            the roads, in the same order as table
+	 * @param table
+	 *            the roads' coordinates
+	 * @param parallelism
+	 *            number of threads to use; 1 builds on the calling thread
+	 * @return the road graph
+	 */
+	static RoadGraph build(List<Road> roads, RoadTable table, int parallelism) {
+		return new GraphBuilder(table, parallelism).build(roads);
+	}
+
+	/**
+	 * Body of a parallel loop over chunks
+	 */
+	private interface ChunkTask {
+		void run(int chunk);
+	}
+
+	private RoadGraph build(List<Road> roads) {
+		// Vertices
+		final int[] vertexOf = new int[numEndpoints];
+		final int[][] coordinates = assignVertices(vertexOf);
+		final int[] xs = coordinates[0];
+		final int[] ys = coordinates[1];
+		final int numVertices = xs.length;
+
+		// Count out-degrees, then turn them into offsets
+		final AtomicIntegerArray degrees = new AtomicIntegerArray(numVertices + 1);
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int i = from(chunk, table.size()); i < to(chunk, table.size()); i++) {
+					degrees.incrementAndGet(vertexOf[2 * i] + 1);
+					if (table.getRoadType(i) == Road.RoadType.TWO_WAY) {
+						degrees.incrementAndGet(vertexOf[2 * i + 1] + 1);
+					}
+				}
+			}
+		});
+
+		final int[] slots = new int[numVertices + 1];
+		for (int v = 0; v < numVertices; v++) {
+			slots[v + 1] = slots[v] + degrees.get(v + 1);
+		}
+
+		// Scatter edges into their source vertex's slot range. Each edge is packed as
+		// (target << 32 | road index) so a plain sort orders a vertex's edges by
+		// target and keeps the lowest road index first among duplicates, however
+		// the threads interleaved.
+		final AtomicIntegerArray fill = new AtomicIntegerArray(Arrays.copyOf(slots, numVertices));
+		final long[] packed = new long[slots[numVertices]];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int i = from(chunk, table.size()); i < to(chunk, table.size()); i++) {
+					int start = vertexOf[2 * i];
+					int end = vertexOf[2 * i + 1];
+					packed[fill.getAndIncrement(start)] = ((long) end << 32) | i;
+					if (table.getRoadType(i) == Road.RoadType.TWO_WAY) {
+						packed[fill.getAndIncrement(end)] = ((long) start << 32) | i;
+					}
+				}
+			}
+		});
+
+		// Sort each vertex's edges and compact away duplicates and self loops,
+		// within the vertex's own slot range
+		final int[] kept = new int[numVertices];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int v = from(chunk, numVertices); v < to(chunk, numVertices); v++) {
+					Arrays.sort(packed, slots[v], slots[v + 1]);
+					int n = slots[v];
+					for (int e = slots[v]; e < slots[v + 1]; e++) {
+						int t = (int) (packed[e] >>> 32);
+						if (t != v && (n == slots[v] || (int) (packed[n - 1] >>> 32) != t)) {
+							packed[n++] = packed[e];
+						}
+					}
+					kept[v] = n - slots[v];
+				}
+			}
+		});
+
+		final int[] offsets = new int[numVertices + 1];
+		for (int v = 0; v < numVertices; v++) {
+			offsets[v + 1] = offsets[v] + kept[v];
+		}
+
+		final int numEdges = offsets[numVertices];
+		final int[] targets = new int[numEdges];
+		final int[] edgeRoads = new int[numEdges];
+		final float[] weights = new float[numEdges];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int v = from(chunk, numVertices); v < to(chunk, numVertices); v++) {
+					for (int i = 0; i < kept[v]; i++) {
+						int e = offsets[v] + i;
+						long edge = packed[slots[v] + i];
+						int t = (int) (edge >>> 32);
+						targets[e] = t;
+						edgeRoads[e] = (int) edge;
+
+						double dx = (double) xs[v] - xs[t];
+						double dy = (double) ys[v] - ys[t];
+						weights[e] = (float) Math.sqrt(dx * dx + dy * dy);
+					}
+				}
+			}
+		});
+
+		return new RoadGraph(roads, xs, ys, offsets, targets, weights, edgeRoads, null);
+	}
+
+	/**
+	 * Give every distinct endpoint coordinate a vertex id
+	 *
+	 * @param vertexOf
+	 *            receives the vertex id of each endpoint
+	 * @return the x and y coordinates of each vertex
+	 */
+	private int[][] assignVertices(final int[] vertexOf) {
+		// Endpoints are grouped by the top bits of their hash, a group per chunk
+		// or so
+		final int groupBits = numChunks == 1 ? 0 : 32 - Integer.numberOfLeadingZeros(numChunks - 1);
+		final int numGroups = 1 << groupBits;
+		final int[] hashes = new int[numEndpoints];
+
+		// counts[c * numGroups + g] is the number of chunk c's endpoints in group g
+		final int[] counts = new int[numChunks * numGroups];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int k = from(chunk, numEndpoints); k < to(chunk, numEndpoints); k++) {
+					hashes[k] = VertexLookup.hash(x(k), y(k));
+					counts[chunk * numGroups + group(hashes[k], groupBits)]++;
+				}
+			}
+		});
+
+		// Lay the groups out one after another, each holding its endpoints in
+		// order, and turn the counts into each chunk's cursor within every group
+		final int[] groupStart = new int[numGroups + 1];
+		for (int g = 0; g < numGroups; g++) {
+			int start = groupStart[g];
+			for (int c = 0; c < numChunks; c++) {
+				int count = counts[c * numGroups + g];
+				counts[c * numGroups + g] = start;
+				start += count;
+			}
+			groupStart[g + 1] = start;
+		}
+
+		final int[] grouped = new int[numEndpoints];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int k = from(chunk, numEndpoints); k < to(chunk, numEndpoints); k++) {
+					grouped[counts[chunk * numGroups + group(hashes[k], groupBits)]++] = k;
+				}
+			}
+		});
+
+		// Deduplicate each group, numbering its vertices locally. Endpoints are
+		// visited in order, so the first endpoint of each vertex is the one that
+		// created it.
+		final boolean[] isFirst = new boolean[numEndpoints];
+		final int[][] localToGlobal = new int[numGroups][];
+		forEachChunk(numGroups, new ChunkTask() {
+
+			@Override
+			public void run(int g) {
+				final int size = groupStart[g + 1] - groupStart[g];
+				final int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+				final int mask = capacity - 1;
+
+				// Local vertex ids, or -1; and the first endpoint of each local vertex
+				final int[] slots = new int[capacity];
+				Arrays.fill(slots, -1);
+				final int[] firstEndpoint = new int[size];
+				int numLocal = 0;
+
+				for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+					final int k = grouped[i];
+					final int x = x(k);
+					final int y = y(k);
+					int slot = hashes[k] & mask;
+					while (true) {
+						int local = slots[slot];
+						if (local < 0) {
+							slots[slot] = numLocal;
+							firstEndpoint[numLocal] = k;
+							vertexOf[k] = numLocal++;
+							isFirst[k] = true;
+							break;
+						}
+						if (x(firstEndpoint[local]) == x && y(firstEndpoint[local]) == y) {
+							vertexOf[k] = local;
+							break;
+						}
+						slot = (slot + 1) & mask;
+					}
+				}
+
+				localToGlobal[g] = new int[numLocal];
+			}
+		});
+
+		// Number the vertices in order of first appearance: count the first
+		// endpoints in each chunk, then hand out ids from each chunk's base
+		final int[] chunkBase = new int[numChunks + 1];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				int n = 0;
+				for (int k = from(chunk, numEndpoints); k < to(chunk, numEndpoints); k++) {
+					if (isFirst[k]) {
+						n++;
+					}
+				}
+				chunkBase[chunk + 1] = n;
+			}
+		});
+
+		for (int c = 0; c < numChunks; c++) {
+			chunkBase[c + 1] += chunkBase[c];
+		}
+
+		final int numVertices = chunkBase[numChunks];
+		final int[] xs = new int[numVertices];
+		final int[] ys = new int[numVertices];
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				int id = chunkBase[chunk];
+				for (int k = from(chunk, numEndpoints); k < to(chunk, numEndpoints); k++) {
+					if (isFirst[k]) {
+						localToGlobal[group(hashes[k], groupBits)][vertexOf[k]] = id;
+						xs[id] = x(k);
+						ys[id] = y(k);
+						id++;
+					}
+				}
+			}
+		});
+
+		forEachChunk(new ChunkTask() {
+
+			@Override
+			public void run(int chunk) {
+				for (int k = from(chunk, numEndpoints); k < to(chunk, numEndpoints); k++) {
+					vertexOf[k] = localToGlobal[group(hashes[k], groupBits)][vertexOf[k]];
+				}
+			}
+		});
+
+		return new int[][] { xs, ys };
+	}
+
+	private int x(int endpoint) {
+		return (endpoint & 1) == 0 ? table.getStartX(endpoint >> 1) : table.getEndX(endpoint >> 1);
+	}
+
+	private int y(int endpoint) {
+		return (endpoint & 1) == 0 ? table.getStartY(endpoint >> 1) : table.getEndY(endpoint >> 1);
+	}
+
+	private static int group(int hash, int groupBits) {
+		return groupBits == 0 ? 0 : hash >>> (32 - groupBits);
+	}
+
+	// Chunk c of n items is [from(c, n), to(c, n))
+	private int from(int chunk, int n) {
+		return (int) ((long) n * chunk / numChunks);
+	}
+
+	private int to(int chunk, int n) {
+		return from(chunk + 1, n);
+	}
+
+	private void forEachChunk(ChunkTask task) {
+		forEachChunk(numChunks, task);
+	}
+
+	private void forEachChunk(int n, ChunkTask task) {
+		if (numChunks == 1) {
+			for (int c = 0; c < n; c++) {
+				task.run(c);
+			}
+		} else {
+			ForkJoinPool.commonPool().invoke(new Chunks(task, 0, n));
+		}
+	}
+
+	/**
+	 * Runs chunks [from, to), splitting in halves down to single chunks
+	 */
+	private static class Chunks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ChunkTask task;
+		private final int from;
+		private final int to;
+
+		Chunks(ChunkTask task, int from, int to) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Chunks(task, from, mid), new Chunks(task, mid, to));
+				return;
+			}
+
+			if (from < to) {
+				task.run(from);
+			}
+		}
+	}
+}
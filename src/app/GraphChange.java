@@ -0,0 +1,62 @@
+package app;
+
+/**
+ * One atomic update of a {@link RoadNetwork}, from the graph before it to the
+ * graph after it. Vertex ids are stable across updates: every vertex of the
+ * old graph has the same id in the new one, and new vertices are appended.
+ * Edge ids are not, so edges are translated with {@link #newEdge(int)}.
+ */
+public class GraphChange {
+	private final RoadGraph oldGraph;
+	private final RoadGraph newGraph;
+
+	// edgeMap[e] is the new id of old edge e, or -1 if it was removed. null if
+	// edge ids didn't change.
+	private final int[] edgeMap;
+
+	private final boolean costIncreaseOnly;
+
+	GraphChange(RoadGraph oldGraph, RoadGraph newGraph, int[] edgeMap, boolean costIncreaseOnly) {
+		this.oldGraph = oldGraph;
+		this.newGraph = newGraph;
+		this.edgeMap = edgeMap;
+		this.costIncreaseOnly = costIncreaseOnly;
+	}
+
+	public RoadGraph getOldGraph() {
+		return oldGraph;
+	}
+
+	public RoadGraph getNewGraph() {
+		return newGraph;
+	}
+
+	/**
+	 * @param oldEdge
+	 *            edge id in the old graph
+	 * @return id of the same edge in the new graph, or -1 if it was removed
+	 */
+	public int newEdge(int oldEdge) {
+		return edgeMap == null ? oldEdge : edgeMap[oldEdge];
+	}
+
+	/**
+	 * @param oldEdge
+	 *            edge id in the old graph
+	 * @return true if the edge was removed or its weight changed
+	 */
+	public boolean isChanged(int oldEdge) {
+		int e = newEdge(oldEdge);
+		return e < 0 || newGraph.edgeWeight(e) != oldGraph.edgeWeight(oldEdge);
+	}
+
+	/**
+	 * @return true if the change only removed edges or raised weights. Then no
+	 *         distance got shorter: a shortest path that uses no changed edge is
+	 *         still a shortest path, and lower bounds such as landmark
+	 *         heuristics stay admissible.
+	 */
+	public boolean isCostIncreaseOnly() {
+		return costIncreaseOnly;
+	}
+}
@@ -0,0 +1,296 @@
+package app;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import models.Road;
+
+/**
+ * Versioned binary snapshot of a built road graph: the road table, vertex
+ * coordinates, CSR adjacency, edge weights, edge to road mapping and vertex
+ * lookup table, written as flat big-endian arrays. Loading maps the file and
+ * bulk copies the arrays out, so startup skips both parsing and hashing.
+ *
+ * The header records the size and modification time of the road file the
+ * snapshot was built from, and a CRC32 of everything after the header.
+ * Snapshots are limited to 2 GiB, the most a single mapping can hold.
+ */
+public class GraphSnapshot {
+	private static final int MAGIC = 0x52475331;
+	private static final int VERSION = 1;
+
+	// magic, version, source length, source modified time, road count, vertex
+	// count, edge count, lookup size, payload checksum
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 8;
+
+	/**
+	 * Told when {@link GraphSnapshot#loadOrBuild(File, File, FallbackHandler)}
+	 * falls back from the snapshot, e.g. to report why startup was slow
+	 */
+	public interface FallbackHandler {
+		/**
+		 * The snapshot exists but can't be used, so the graph is built from the
+		 * road file instead
+		 *
+		 * @param e
+		 *            why the snapshot was rejected
+		 */
+		void readFailed(IOException e);
+
+		/**
+		 * The graph was built but the new snapshot couldn't be written; the graph
+		 * is returned anyway
+		 *
+		 * @param e
+		 */
+		void writeFailed(IOException e);
+	}
+
+	/**
+	 * {@link #loadOrBuild(File, File, FallbackHandler)} without reporting
+	 * fallbacks
+	 */
+	public static RoadGraph loadOrBuild(File sourceFile, File snapshotFile) throws FileNotFoundException, IOException {
+		return loadOrBuild(sourceFile, snapshotFile, null);
+	}
+
+	/**
+	 * Load the snapshot of sourceFile if it is current, otherwise parse
+	 * sourceFile, build the graph and write a new snapshot for next time
+	 *
+	 * @param sourceFile
+	 *            road file, see {@link RoadParser#parseRoads(File)}
+	 * @param snapshotFile
+	 * @param handler
+	 *            told if the snapshot can't be read or written, or null
+	 * @return the road graph
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 *             if the road file can't be parsed
+	 */
+	public static RoadGraph loadOrBuild(File sourceFile, File snapshotFile, FallbackHandler handler)
+			throws FileNotFoundException, IOException {
+		if (snapshotFile.isFile()) {
+			try {
+				return read(snapshotFile, sourceFile);
+			} catch (IOException e) {
+				if (handler != null) {
+					handler.readFailed(e);
+				}
+			}
+		}
+
+		final int parallelism = Runtime.getRuntime().availableProcessors();
+		RoadTable table = RoadParser.parseRoadTable(sourceFile, parallelism);
+		RoadGraph graph = RoadParser.buildRoadGraph(table, parallelism);
+		try {
+			write(graph, sourceFile, snapshotFile);
+		} catch (IOException e) {
+			if (handler != null) {
+				handler.writeFailed(e);
+			}
+		}
+
+		return graph;
+	}
+
+	/**
+	 * Write a snapshot of graph. The file is written next to snapshotFile and
+	 * then moved over it, so readers never see a partial snapshot.
+	 *
+	 * @param graph
+	 * @param sourceFile
+	 *            road file the graph was built from
+	 * @param snapshotFile
+	 * @throws IOException
+	 */
+	public static void write(RoadGraph graph, File sourceFile, File snapshotFile) throws IOException {
+		final List<Road> roads = graph.getRoads();
+		final int numRoads = roads.size();
+		final int numVertices = graph.getVertexCount();
+		final int numEdges = graph.getEdgeCount();
+		final int[] lookup = graph.getVertexLookup().slots();
+		final long size = HEADER_SIZE + payloadSize(numRoads, numVertices, numEdges, lookup.length);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Graph is too large for a snapshot: " + size + " bytes");
+		}
+
+		File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+		try (RandomAccessFile file = new RandomAccessFile(tmpFile, "rw")) {
+			file.setLength(size);
+			MappedByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+			buf.position(HEADER_SIZE);
+			for (Road r : roads) {
+				buf.put((byte) (r.getRoadType() == Road.RoadType.ONE_WAY ? 1 : 0));
+			}
+			align(buf);
+			for (Road r : roads) {
+				buf.putInt(r.getStartPoint().getX());
+			}
+			for (Road r : roads) {
+				buf.putInt(r.getStartPoint().getY());
+			}
+			for (Road r : roads) {
+				buf.putInt(r.getEndPoint().getX());
+			}
+			for (Road r : roads) {
+				buf.putInt(r.getEndPoint().getY());
+			}
+
+			for (int v = 0; v < numVertices; v++) {
+				buf.putInt(graph.getX(v));
+			}
+			for (int v = 0; v < numVertices; v++) {
+				buf.putInt(graph.getY(v));
+			}
+			for (int v = 0; v < numVertices; v++) {
+				buf.putInt(graph.edgeStart(v));
+			}
+			buf.putInt(numEdges);
+			for (int e = 0; e < numEdges; e++) {
+				buf.putInt(graph.edgeTarget(e));
+			}
+			for (int e = 0; e < numEdges; e++) {
+				buf.putFloat(graph.edgeWeight(e));
+			}
+			for (int e = 0; e < numEdges; e++) {
+				buf.putInt(graph.edgeRoadIndex(e));
+			}
+			for (int slot : lookup) {
+				buf.putInt(slot);
+			}
+
+			buf.position(0);
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putLong(sourceFile.length());
+			buf.putLong(sourceFile.lastModified());
+			buf.putInt(numRoads);
+			buf.putInt(numVertices);
+			buf.putInt(numEdges);
+			buf.putInt(lookup.length);
+			buf.putLong(checksum(buf));
+			buf.force();
+		}
+
+		try {
+			Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Read a snapshot written by {@link #write}
+	 *
+	 * @param snapshotFile
+	 * @param sourceFile
+	 *            road file the snapshot must have been built from
+	 * @return the road graph
+	 * @throws IOException
+	 *             if the snapshot is unreadable, corrupt, from another version or
+	 *             older than the current sourceFile
+	 */
+	public static RoadGraph read(File snapshotFile, File sourceFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r")) {
+			final long size = file.length();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new IOException(snapshotFile + " is truncated");
+			}
+
+			MappedByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buf.getInt() != MAGIC) {
+				throw new IOException(snapshotFile + " is not a graph snapshot");
+			}
+
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException(snapshotFile + " has unsupported version " + version);
+			}
+
+			if (buf.getLong() != sourceFile.length() || buf.getLong() != sourceFile.lastModified()) {
+				throw new IOException(snapshotFile + " is stale, " + sourceFile + " has changed");
+			}
+
+			final int numRoads = buf.getInt();
+			final int numVertices = buf.getInt();
+			final int numEdges = buf.getInt();
+			final int lookupSize = buf.getInt();
+			final long expectedChecksum = buf.getLong();
+			if (numRoads < 0 || numVertices < 0 || numEdges < 0 || lookupSize < 0
+					|| size != HEADER_SIZE + payloadSize(numRoads, numVertices, numEdges, lookupSize)) {
+				throw new IOException(snapshotFile + " is truncated");
+			}
+			if (checksum(buf) != expectedChecksum) {
+				throw new IOException(snapshotFile + " is corrupt, checksum mismatch");
+			}
+
+			buf.position(HEADER_SIZE);
+			final boolean[] oneWay = new boolean[numRoads];
+			for (int i = 0; i < numRoads; i++) {
+				oneWay[i] = buf.get() != 0;
+			}
+			align(buf);
+			final int[] startXs = readInts(buf, numRoads);
+			final int[] startYs = readInts(buf, numRoads);
+			final int[] endXs = readInts(buf, numRoads);
+			final int[] endYs = readInts(buf, numRoads);
+			final RoadTable table = new RoadTable(numRoads, oneWay, startXs, startYs, endXs, endYs);
+
+			final int[] xs = readInts(buf, numVertices);
+			final int[] ys = readInts(buf, numVertices);
+			final int[] offsets = readInts(buf, numVertices + 1);
+			final int[] targets = readInts(buf, numEdges);
+			final float[] weights = new float[numEdges];
+			buf.asFloatBuffer().get(weights);
+			buf.position(buf.position() + 4 * numEdges);
+			final int[] edgeRoads = readInts(buf, numEdges);
+			final int[] lookup = readInts(buf, lookupSize);
+
+			return new RoadGraph(table.asRoadList(), xs, ys, offsets, targets, weights, edgeRoads,
+					new VertexLookup(lookup));
+		}
+	}
+
+	private static long payloadSize(int numRoads, int numVertices, int numEdges, int lookupSize) {
+		return alignUp(numRoads) + 4L * 4 * numRoads + 4L * 2 * numVertices + 4L * (numVertices + 1)
+				+ 4L * 3 * numEdges + 4L * lookupSize;
+	}
+
+	private static long checksum(ByteBuffer buf) {
+		ByteBuffer payload = buf.duplicate();
+		payload.position(HEADER_SIZE);
+		payload.limit(payload.capacity());
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return crc.getValue();
+	}
+
+	private static int[] readInts(ByteBuffer buf, int n) {
+		int[] values = new int[n];
+		buf.asIntBuffer().get(values);
+		buf.position(buf.position() + 4 * n);
+		return values;
+	}
+
+	// Keep the int arrays after the road type bytes 4-byte aligned
+	private static void align(ByteBuffer buf) {
+		buf.position((int) (HEADER_SIZE + alignUp(buf.position() - HEADER_SIZE)));
+	}
+
+	private static long alignUp(long n) {
+		return (n + 3) & ~3L;
+	}
+}
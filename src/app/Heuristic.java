@@ -0,0 +1,30 @@
+package app;
+
+/**
+ * Lower bound on the remaining path length from a vertex to the search target,
+ * evaluated on demand by A* for the vertices it actually reaches.
+ */
+public interface Heuristic {
+	double estimate(int vertex);
+
+	/**
+	 * Straight line distance to the target vertex
+	 *
+	 * @param graph
+	 * @param target
+	 * @return
+	 */
+	static Heuristic straightLine(RoadGraph graph, int target) {
+		final int targetX = graph.getX(target);
+		final int targetY = graph.getY(target);
+		return new Heuristic() {
+
+			@Override
+			public double estimate(int vertex) {
+				double dx = graph.getX(vertex) - targetX;
+				double dy = graph.getY(vertex) - targetY;
+				return Math.sqrt(dx * dx + dy * dy);
+			}
+		};
+	}
+}
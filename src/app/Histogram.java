@@ -0,0 +1,113 @@
+package app;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative long values, e.g. latencies in
+ * nanoseconds. Values are bucketed by their highest set bit and the three bits
+ * below it, so percentiles are exact for values below 8 and within 12.5%
+ * above. Recording is lock-free and allocates nothing.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param value
+	 *            the value, negative ones count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean of the recorded values, 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            in [0, 100]
+	 * @return a value at least as large as the given percentage of the recorded
+	 *         values, 0 if there are none
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.sum();
+		if (n == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int b = 0; b < counts.length(); b++) {
+			seen += counts.get(b);
+			if (seen >= rank) {
+				return Math.min(bucketHigh(b), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Forget every recorded value. Values recorded concurrently may or may not
+	 * be kept.
+	 */
+	public void reset() {
+		for (int b = 0; b < counts.length(); b++) {
+			counts.set(b, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + getPercentile(50) + " p90="
+				+ getPercentile(90) + " p99=" + getPercentile(99) + " max=" + getMax();
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Largest value that falls in bucket b
+	static long bucketHigh(int b) {
+		if (b < SUB_BUCKETS) {
+			return b;
+		}
+
+		int exponent = b / SUB_BUCKETS + SUB_BITS - 1;
+		long low = (1L << exponent) | ((long) (b % SUB_BUCKETS) << (exponent - SUB_BITS));
+		return low + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
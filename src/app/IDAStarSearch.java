@@ -0,0 +1,330 @@
+package app;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Iterative deepening A*. Each iteration is a depth-first search that prunes
+ * paths whose f-cost exceeds the current threshold, so besides the optional
+ * transposition table the memory used is proportional to the depth of the
+ * current path.
+ *
+ * The depth-first search runs on an explicit stack of primitive arrays rather
+ * than recursion, and an instance can be reused for any number of queries on
+ * the same graph without allocating anything per expanded node.
+ *
+ * Once an iteration reaches the goal it keeps searching with the bound lowered
+ * to the best cost found so far, so the returned path is optimal for an
+ * admissible heuristic whatever threshold growth strategy is used.
+ */
+public class IDAStarSearch {
+
+	/**
+	 * Decides the threshold of the next iteration
+	 */
+	public interface ThresholdGrowth {
+		/**
+		 * @param threshold
+		 *            threshold of the iteration that just finished
+		 * @param minExceeded
+		 *            smallest f-cost that was pruned by that threshold
+		 * @return next threshold, at least minExceeded
+		 */
+		double next(double threshold, double minExceeded);
+
+		/**
+		 * Classic IDA*: raise the threshold just enough to admit one more f-cost.
+		 * Expands the fewest nodes in the final iteration, but with real valued edge
+		 * lengths nearly every iteration admits only a handful of new nodes.
+		 */
+		static ThresholdGrowth minimum() {
+			return new ThresholdGrowth() {
+
+				@Override
+				public double next(double threshold, double minExceeded) {
+					return minExceeded;
+				}
+			};
+		}
+
+		/**
+		 * Multiply the threshold by factor each iteration, giving a logarithmic
+		 * number of iterations in the optimal path length
+		 */
+		static ThresholdGrowth geometric(final double factor) {
+			if (factor <= 1) {
+				throw new IllegalArgumentException("Growth factor must be greater than 1: " + factor);
+			}
+
+			return new ThresholdGrowth() {
+
+				@Override
+				public double next(double threshold, double minExceeded) {
+					return Math.max(minExceeded, threshold * factor);
+				}
+			};
+		}
+	}
+
+	private static final int INITIAL_DEPTH = 64;
+
+	private final RoadGraph graph;
+	private final ThresholdGrowth growth;
+
+	// Explicit DFS stack. Level d holds the vertex, the next edge of it to try, its
+	// g-cost and the edge it was entered by.
+	private int[] stackVertex = new int[INITIAL_DEPTH];
+	private int[] stackNextEdge = new int[INITIAL_DEPTH];
+	private int[] stackEdgeIn = new int[INITIAL_DEPTH];
+	private double[] stackG = new double[INITIAL_DEPTH];
+
+	// Vertices on the current path, so it never loops back on itself
+	private final boolean[] onPath;
+
+	// Best path found in the current iteration
+	private int[] bestPath = new int[INITIAL_DEPTH];
+	private int bestLength;
+	private double bestCost;
+
+	// Direct-mapped table of the lowest g-cost each vertex was entered with in
+	// the current iteration. Arriving again no cheaper cannot lead anywhere new.
+	// Vertex ids are dense, so a table at least as large as the graph never
+	// collides. Entries are only valid when their stamp matches the current
+	// generation.
+	private final int ttMask;
+	private final int[] ttVertex;
+	private final double[] ttG;
+	private final int[] ttStamp;
+	private int ttGeneration;
+
+	private SearchMonitor monitor;
+	private SearchStats stats;
+
+	// Work done by the current search, for the monitor and the stats
+	private int expanded;
+	private int relaxed;
+
+	/**
+	 * @param graph
+	 * @param growth
+	 *            threshold growth strategy
+	 * @param transpositionTableSize
+	 *            maximum number of transposition table entries, rounded up to a
+	 *            power of two, or 0 to search without one
+	 */
+	public IDAStarSearch(RoadGraph graph, ThresholdGrowth growth, int transpositionTableSize) {
+		this.graph = graph;
+		this.growth = growth;
+		this.onPath = new boolean[graph.getVertexCount()];
+
+		if (transpositionTableSize > 0) {
+			int capacity = Integer.highestOneBit(Math.max(1, transpositionTableSize - 1)) << 1;
+			ttMask = capacity - 1;
+			ttVertex = new int[capacity];
+			ttG = new double[capacity];
+			ttStamp = new int[capacity];
+		} else {
+			ttMask = -1;
+			ttVertex = null;
+			ttG = null;
+			ttStamp = null;
+		}
+	}
+
+	void setMonitor(SearchMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	void setStats(SearchStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Find the optimal path from startPoint to endPoint
+	 *
+	 * @param heuristic
+	 *            admissible heuristic for endPoint; it is evaluated again on every
+	 *            visit, so expensive ones should be memoized
+	 * @param startPoint
+	 * @param endPoint
+	 * @return edge ids of the path in order, empty if there is none
+	 */
+	public int[] search(Heuristic heuristic, int startPoint, int endPoint) {
+		if (startPoint == endPoint) {
+			return new int[0];
+		}
+
+		expanded = 0;
+		relaxed = 0;
+		int iterations = 0;
+		double threshold = heuristic.estimate(startPoint);
+		while (true) {
+			double minExceeded = iterate(heuristic, startPoint, endPoint, threshold);
+			iterations++;
+
+			// Done if a path was found, or if nothing was pruned and so the whole
+			// reachable graph was searched
+			if (bestLength >= 0 || minExceeded == Double.POSITIVE_INFINITY) {
+				if (stats != null) {
+					stats.settled = expanded;
+					stats.pushes = expanded;
+					stats.pops = expanded;
+					stats.relaxed = relaxed;
+					stats.iterations = iterations;
+				}
+
+				return bestLength >= 0 ? Arrays.copyOf(bestPath, bestLength) : new int[0];
+			}
+
+			threshold = growth.next(threshold, minExceeded);
+		}
+	}
+
+	/**
+	 * Run one bounded depth-first iteration
+	 *
+	 * @return smallest f-cost pruned by the threshold
+	 */
+	private double iterate(Heuristic heuristic, int startPoint, int endPoint, double threshold) {
+		double minExceeded = Double.POSITIVE_INFINITY;
+		bestLength = -1;
+		bestCost = Double.POSITIVE_INFINITY;
+		nextTranspositionGeneration();
+
+		int depth = 0;
+		stackVertex[0] = startPoint;
+		stackNextEdge[0] = graph.edgeStart(startPoint);
+		stackEdgeIn[0] = -1;
+		stackG[0] = 0;
+		onPath[startPoint] = true;
+
+		while (depth >= 0) {
+			int cur = stackVertex[depth];
+			int e = stackNextEdge[depth];
+
+			// All successors tried, backtrack
+			if (e == graph.edgeEnd(cur)) {
+				onPath[cur] = false;
+				depth--;
+				continue;
+			}
+			stackNextEdge[depth] = e + 1;
+			relaxed++;
+
+			int neighbor = graph.edgeTarget(e);
+			if (onPath[neighbor]) {
+				continue;
+			}
+
+			double g = stackG[depth] + graph.edgeWeight(e);
+
+			// Anything at least as long as the best path so far is useless
+			if (g >= bestCost) {
+				continue;
+			}
+
+			double f = g + heuristic.estimate(neighbor);
+			if (f > threshold) {
+				minExceeded = Math.min(minExceeded, f);
+				continue;
+			}
+
+			if (neighbor == endPoint) {
+				recordBestPath(depth, e, g);
+				continue;
+			}
+
+			if (!enterTransposition(neighbor, g)) {
+				continue;
+			}
+
+			expanded++;
+			if (monitor != null && expanded % SearchMonitor.INTERVAL == 0) {
+				checkpoint(depth, neighbor);
+			}
+
+			// Descend into neighbor
+			depth++;
+			if (depth == stackVertex.length) {
+				growStack();
+			}
+			stackVertex[depth] = neighbor;
+			stackNextEdge[depth] = graph.edgeStart(neighbor);
+			stackEdgeIn[depth] = e;
+			stackG[depth] = g;
+			onPath[neighbor] = true;
+		}
+
+		return minExceeded;
+	}
+
+	// Report to the monitor. If the search was cancelled, leave onPath clear for
+	// the next search before bailing out.
+	private void checkpoint(int depth, int vertex) {
+		try {
+			SearchWorkspace.checkpoint(monitor, expanded, vertex);
+		} catch (CancellationException e) {
+			for (int d = 0; d <= depth; d++) {
+				onPath[stackVertex[d]] = false;
+			}
+			throw e;
+		}
+	}
+
+	// The path is the edges that entered stack levels 1..depth followed by lastEdge
+	private void recordBestPath(int depth, int lastEdge, double cost) {
+		if (bestPath.length < depth + 1) {
+			bestPath = new int[stackVertex.length];
+		}
+
+		for (int d = 1; d <= depth; d++) {
+			bestPath[d - 1] = stackEdgeIn[d];
+		}
+		bestPath[depth] = lastEdge;
+		bestLength = depth + 1;
+		bestCost = cost;
+	}
+
+	/**
+	 * Check the transposition table before entering vertex with cost g, and record
+	 * the visit
+	 *
+	 * @return false if vertex was already entered at most as expensively in this
+	 *         iteration
+	 */
+	private boolean enterTransposition(int vertex, double g) {
+		if (ttVertex == null) {
+			return true;
+		}
+
+		int slot = vertex & ttMask;
+		if (ttStamp[slot] == ttGeneration && ttVertex[slot] == vertex && ttG[slot] <= g) {
+			return false;
+		}
+
+		ttStamp[slot] = ttGeneration;
+		ttVertex[slot] = vertex;
+		ttG[slot] = g;
+		return true;
+	}
+
+	private void nextTranspositionGeneration() {
+		if (ttStamp == null) {
+			return;
+		}
+
+		ttGeneration++;
+		if (ttGeneration == 0) {
+			Arrays.fill(ttStamp, 0);
+			ttGeneration = 1;
+		}
+	}
+
+	private void growStack() {
+		int capacity = stackVertex.length * 2;
+		stackVertex = Arrays.copyOf(stackVertex, capacity);
+		stackNextEdge = Arrays.copyOf(stackNextEdge, capacity);
+		stackEdgeIn = Arrays.copyOf(stackEdgeIn, capacity);
+		stackG = Arrays.copyOf(stackG, capacity);
+	}
+}
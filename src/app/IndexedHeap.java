@@ -0,0 +1,151 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Min-priority queue of vertex ids with double keys, laid out as an implicit
+ * 4-ary heap. Each vertex's heap slot is tracked so decreaseKey and contains are
+ * O(log n) and O(1), and keys are stored inline next to the heap entries so
+ * sifting never looks anything up elsewhere.
+ */
+final class IndexedHeap {
+	private static final int ARITY = 4;
+
+	// heap[i] is the vertex in slot i, keys[i] its key
+	private final int[] heap;
+	private final double[] keys;
+
+	// positions[v] is v's slot in heap, or -1 if v is not queued
+	private final int[] positions;
+	private int size;
+
+	IndexedHeap(int capacity) {
+		heap = new int[capacity];
+		keys = new double[capacity];
+		positions = new int[capacity];
+		Arrays.fill(positions, -1);
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean contains(int v) {
+		return positions[v] >= 0;
+	}
+
+	double key(int v) {
+		return keys[positions[v]];
+	}
+
+	double peekKey() {
+		return keys[0];
+	}
+
+	int peek() {
+		return heap[0];
+	}
+
+	/**
+	 * Remove every queued vertex. Runs in O(size) rather than O(capacity).
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Queue a vertex that is not already in the heap
+	 */
+	void push(int v, double key) {
+		siftUp(size++, v, key);
+	}
+
+	/**
+	 * Lower the key of a queued vertex
+	 */
+	void decreaseKey(int v, double key) {
+		siftUp(positions[v], v, key);
+	}
+
+	/**
+	 * Queue v, or lower its key if it is already queued with a larger one
+	 */
+	void pushOrDecrease(int v, double key) {
+		int pos = positions[v];
+		if (pos < 0) {
+			push(v, key);
+		} else if (key < keys[pos]) {
+			siftUp(pos, v, key);
+		}
+	}
+
+	/**
+	 * Remove and return the vertex with the smallest key
+	 */
+	int pop() {
+		int min = heap[0];
+		positions[min] = -1;
+		size--;
+		if (size > 0) {
+			siftDown(0, heap[size], keys[size]);
+		}
+
+		return min;
+	}
+
+	// Move the hole at pos up until key fits, then drop v into it
+	private void siftUp(int pos, int v, double key) {
+		while (pos > 0) {
+			int parent = (pos - 1) / ARITY;
+			if (keys[parent] <= key) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			keys[pos] = keys[parent];
+			positions[heap[pos]] = pos;
+			pos = parent;
+		}
+
+		heap[pos] = v;
+		keys[pos] = key;
+		positions[v] = pos;
+	}
+
+	// Move the hole at pos down until key fits, then drop v into it
+	private void siftDown(int pos, int v, double key) {
+		while (true) {
+			int first = pos * ARITY + 1;
+			if (first >= size) {
+				break;
+			}
+
+			// Find the smallest child
+			int last = Math.min(first + ARITY, size);
+			int best = first;
+			for (int c = first + 1; c < last; c++) {
+				if (keys[c] < keys[best]) {
+					best = c;
+				}
+			}
+
+			if (key <= keys[best]) {
+				break;
+			}
+			heap[pos] = heap[best];
+			keys[pos] = keys[best];
+			positions[heap[pos]] = pos;
+			pos = best;
+		}
+
+		heap[pos] = v;
+		keys[pos] = key;
+		positions[v] = pos;
+	}
+}
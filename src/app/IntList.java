@@ -0,0 +1,50 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints
+ */
+final class IntList {
+	private int[] values;
+	private int size;
+
+	IntList() {
+		this(8);
+	}
+
+	IntList(int capacity) {
+		values = new int[Math.max(1, capacity)];
+	}
+
+	int size() {
+		return size;
+	}
+
+	int get(int i) {
+		return values[i];
+	}
+
+	void set(int i, int value) {
+		values[i] = value;
+	}
+
+	void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	int removeLast() {
+		return values[--size];
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
@@ -0,0 +1,396 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ALT (A*, landmarks, triangle inequality) heuristics. For a handful of
+ * landmark vertices L the exact distances d(L, v) and d(v, L) to and from every
+ * vertex are precomputed, and the triangle inequality turns them into lower
+ * bounds on d(v, t):
+ *
+ * d(v, t) >= d(L, t) - d(L, v) and d(v, t) >= d(v, L) - d(t, L)
+ *
+ * The bounds are consistent and respect one-way roads, and are usually much
+ * tighter than straight line distance on a road network with rivers and
+ * one-way streets.
+ */
+public class Landmarks {
+	private static final int FILE_MAGIC = 0x414C5431;
+	private static final int FILE_VERSION = 1;
+
+	public enum Selection {
+		/**
+		 * Each landmark is the vertex farthest from the ones already picked
+		 */
+		FARTHEST,
+
+		/**
+		 * Each landmark is a leaf of a shortest path tree in the region the current
+		 * landmarks cover worst (Goldberg and Werneck's avoid heuristic)
+		 */
+		AVOID
+	}
+
+	private final RoadGraph graph;
+	private final int[] landmarks;
+
+	// fromLandmark[k * n + v] = d(landmarks[k], v), toLandmark[k * n + v] =
+	// d(v, landmarks[k]), rounded to the nearest float. Unreachable pairs are
+	// infinite.
+	private final float[] fromLandmark;
+	private final float[] toLandmark;
+
+	private Landmarks(RoadGraph graph, int[] landmarks, float[] fromLandmark, float[] toLandmark) {
+		this.graph = graph;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	/**
+	 * Pick landmarks and precompute their distance tables
+	 *
+	 * @param graph
+	 * @param count
+	 *            number of landmarks
+	 * @param selection
+	 *            landmark selection strategy
+	 * @param seed
+	 *            seed for the random choices the strategies make
+	 * @return the landmarks
+	 */
+	public static Landmarks select(RoadGraph graph, int count, Selection selection, long seed) {
+		final int n = graph.getVertexCount();
+		count = Math.min(count, n);
+		final Random random = new Random(seed);
+		final int[] landmarks = new int[count];
+		final float[] fromLandmark = new float[count * n];
+		final float[] toLandmark = new float[count * n];
+		final Dijkstra dijkstra = new Dijkstra(graph);
+
+		for (int k = 0; k < count; k++) {
+			int landmark = selection == Selection.FARTHEST ? farthest(graph, dijkstra, landmarks, fromLandmark, k,
+					random) : avoid(graph, dijkstra, landmarks, fromLandmark, toLandmark, k, random);
+			landmarks[k] = landmark;
+
+			dijkstra.run(landmark, false);
+			dijkstra.copyDistances(fromLandmark, k * n);
+			dijkstra.run(landmark, true);
+			dijkstra.copyDistances(toLandmark, k * n);
+		}
+
+		return new Landmarks(graph, landmarks, fromLandmark, toLandmark);
+	}
+
+	public int[] getLandmarks() {
+		return landmarks.clone();
+	}
+
+	/**
+	 * @param target
+	 * @return lower bound on d(v, target), for a forward search to target
+	 */
+	public Heuristic toTarget(final int target) {
+		return new Heuristic() {
+
+			@Override
+			public double estimate(int vertex) {
+				return lowerBound(vertex, target);
+			}
+		};
+	}
+
+	/**
+	 * @param source
+	 * @return lower bound on d(source, v), for a backward search to source
+	 */
+	public Heuristic fromSource(final int source) {
+		return new Heuristic() {
+
+			@Override
+			public double estimate(int vertex) {
+				return lowerBound(source, vertex);
+			}
+		};
+	}
+
+	/**
+	 * @return the best triangle inequality lower bound on d(u, v) over all
+	 *         landmarks
+	 */
+	public double lowerBound(int u, int v) {
+		final int n = graph.getVertexCount();
+		double best = 0;
+		for (int k = 0; k < landmarks.length; k++) {
+			int base = k * n;
+
+			// d(u, v) >= d(L, v) - d(L, u)
+			double fromU = fromLandmark[base + u];
+			double fromV = fromLandmark[base + v];
+			if (fromU != Double.POSITIVE_INFINITY && fromV != Double.POSITIVE_INFINITY) {
+				best = Math.max(best, roundedDown(fromV, fromU));
+			}
+
+			// d(u, v) >= d(u, L) - d(v, L)
+			double toU = toLandmark[base + u];
+			double toV = toLandmark[base + v];
+			if (toU != Double.POSITIVE_INFINITY && toV != Double.POSITIVE_INFINITY) {
+				best = Math.max(best, roundedDown(toU, toV));
+			}
+		}
+
+		return best;
+	}
+
+	// a - b for two table entries, less the most their rounding to float can
+	// have moved them. The difference of the exact distances is at least this,
+	// so the bound stays admissible.
+	private static double roundedDown(double a, double b) {
+		return a - b - Math.ulp((float) a) - Math.ulp((float) b);
+	}
+
+	/**
+	 * Write the landmarks and distance tables to a file next to the graph.
+	 * {@link #load(File, RoadGraph)} needs the same graph.
+	 *
+	 * @param outFile
+	 * @throws IOException
+	 */
+	public void save(File outFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(outFile)))) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(graph.getVertexCount());
+			out.writeInt(graph.getEdgeCount());
+			out.writeInt(landmarks.length);
+			for (int landmark : landmarks) {
+				out.writeInt(landmark);
+			}
+			for (float d : fromLandmark) {
+				out.writeFloat(d);
+			}
+			for (float d : toLandmark) {
+				out.writeFloat(d);
+			}
+		}
+	}
+
+	/**
+	 * Read landmarks written by {@link #save(File)}
+	 *
+	 * @param inFile
+	 * @param graph
+	 *            the graph the landmarks were computed for
+	 * @return the landmarks
+	 * @throws IOException
+	 *             if the file is not a landmark file or was built for another
+	 *             graph
+	 */
+	public static Landmarks load(File inFile, RoadGraph graph) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)))) {
+			if (in.readInt() != FILE_MAGIC) {
+				throw new IOException("Not a landmark file: " + inFile);
+			}
+
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported landmark file version: " + version);
+			}
+
+			if (in.readInt() != graph.getVertexCount() || in.readInt() != graph.getEdgeCount()) {
+				throw new IOException("Landmark file " + inFile + " was built for a different graph");
+			}
+
+			int[] landmarks = new int[in.readInt()];
+			for (int k = 0; k < landmarks.length; k++) {
+				landmarks[k] = in.readInt();
+			}
+
+			float[] fromLandmark = new float[landmarks.length * graph.getVertexCount()];
+			float[] toLandmark = new float[fromLandmark.length];
+			for (int i = 0; i < fromLandmark.length; i++) {
+				fromLandmark[i] = in.readFloat();
+			}
+			for (int i = 0; i < toLandmark.length; i++) {
+				toLandmark[i] = in.readFloat();
+			}
+
+			return new Landmarks(graph, landmarks, fromLandmark, toLandmark);
+		}
+	}
+
+	// The first landmark is the vertex farthest from a random one, every other is
+	// the vertex whose distance from its closest landmark is largest
+	private static int farthest(RoadGraph graph, Dijkstra dijkstra, int[] landmarks, float[] fromLandmark,
+			int chosen, Random random) {
+		final int n = graph.getVertexCount();
+		if (chosen == 0) {
+			dijkstra.run(random.nextInt(n), false);
+			return dijkstra.farthestReached();
+		}
+
+		int best = -1;
+		double bestDist = -1;
+		for (int v = 0; v < n; v++) {
+			double closest = Double.POSITIVE_INFINITY;
+			for (int k = 0; k < chosen; k++) {
+				closest = Math.min(closest, fromLandmark[k * n + v]);
+			}
+
+			if (closest != Double.POSITIVE_INFINITY && closest > bestDist) {
+				bestDist = closest;
+				best = v;
+			}
+		}
+
+		return best;
+	}
+
+	// Grow a shortest path tree from a random root. A vertex's weight is how much
+	// the current landmarks underestimate its distance from the root, and its size
+	// is the total weight of its subtree, or 0 if the subtree already holds a
+	// landmark. Following the largest child from the root leads to a leaf in the
+	// worst covered region.
+	private static int avoid(RoadGraph graph, Dijkstra dijkstra, int[] landmarks, float[] fromLandmark,
+			float[] toLandmark, int chosen, Random random) {
+		final int n = graph.getVertexCount();
+		final int root = random.nextInt(n);
+		final Landmarks current = new Landmarks(graph, Arrays.copyOf(landmarks, chosen), fromLandmark,
+				toLandmark);
+
+		dijkstra.run(root, false);
+		final double[] size = new double[n];
+		final boolean[] hasLandmark = new boolean[n];
+		for (int k = 0; k < chosen; k++) {
+			hasLandmark[landmarks[k]] = true;
+		}
+
+		// Settle order is a topological order of the tree, so walking it backwards
+		// visits children before parents
+		final int[] order = dijkstra.settleOrder();
+		for (int i = order.length - 1; i >= 0; i--) {
+			int v = order[i];
+			if (hasLandmark[v]) {
+				size[v] = 0;
+			} else {
+				size[v] += dijkstra.distance(v) - current.lowerBound(root, v);
+			}
+
+			int parent = dijkstra.parent(v);
+			if (parent >= 0) {
+				if (hasLandmark[v]) {
+					hasLandmark[parent] = true;
+				}
+				size[parent] += size[v];
+			}
+		}
+
+		// Children of each tree vertex, then walk down the heaviest branch
+		final int[] childOffsets = new int[n + 1];
+		for (int v : order) {
+			if (dijkstra.parent(v) >= 0) {
+				childOffsets[dijkstra.parent(v) + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			childOffsets[v + 1] += childOffsets[v];
+		}
+		final int[] fill = Arrays.copyOf(childOffsets, n);
+		final int[] children = new int[childOffsets[n]];
+		for (int v : order) {
+			if (dijkstra.parent(v) >= 0) {
+				children[fill[dijkstra.parent(v)]++] = v;
+			}
+		}
+
+		int cur = root;
+		while (childOffsets[cur] != childOffsets[cur + 1]) {
+			int heaviest = children[childOffsets[cur]];
+			for (int i = childOffsets[cur] + 1; i < childOffsets[cur + 1]; i++) {
+				if (size[children[i]] > size[heaviest]) {
+					heaviest = children[i];
+				}
+			}
+			cur = heaviest;
+		}
+
+		return cur;
+	}
+
+	/**
+	 * One-to-all Dijkstra over the graph's outgoing or incoming edges
+	 */
+	private static class Dijkstra {
+		private final RoadGraph graph;
+		private final IndexedHeap queue;
+		private final double[] dist;
+		private final int[] parent;
+		private final IntList settled;
+
+		Dijkstra(RoadGraph graph) {
+			this.graph = graph;
+			this.queue = new IndexedHeap(graph.getVertexCount());
+			this.dist = new double[graph.getVertexCount()];
+			this.parent = new int[graph.getVertexCount()];
+			this.settled = new IntList(graph.getVertexCount());
+		}
+
+		void run(int source, boolean backward) {
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(parent, -1);
+			settled.clear();
+			dist[source] = 0;
+			queue.push(source, 0);
+
+			while (!queue.isEmpty()) {
+				int cur = queue.pop();
+				settled.add(cur);
+
+				int begin = backward ? graph.inEdgeStart(cur) : graph.edgeStart(cur);
+				int end = backward ? graph.inEdgeEnd(cur) : graph.edgeEnd(cur);
+				for (int i = begin; i < end; i++) {
+					int e = backward ? graph.inEdge(i) : i;
+					int neighbor = backward ? graph.edgeSource(e) : graph.edgeTarget(e);
+					double d = dist[cur] + graph.edgeWeight(e);
+					if (d < dist[neighbor]) {
+						dist[neighbor] = d;
+						parent[neighbor] = cur;
+						queue.pushOrDecrease(neighbor, d);
+					}
+				}
+			}
+		}
+
+		double distance(int v) {
+			return dist[v];
+		}
+
+		int parent(int v) {
+			return parent[v];
+		}
+
+		int[] settleOrder() {
+			return settled.toArray();
+		}
+
+		int farthestReached() {
+			return settled.get(settled.size() - 1);
+		}
+
+		void copyDistances(float[] table, int offset) {
+			for (int v = 0; v < dist.length; v++) {
+				table[offset + v] = (float) dist[v];
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a {@link RouteServer} on localhost with ROUTE requests between random
+ * road end points, for throughput testing. Each connection keeps a fixed
+ * number of requests in flight and measures the time from sending a request
+ * to reading its response.
+ */
+public class LoadGenerator {
+	private final RoadTable table;
+	private final int port;
+	private final int connections;
+	private final int requestsPerConnection;
+	private final int pipelineDepth;
+
+	private final Histogram latency = new Histogram();
+	private final AtomicLong noRoute = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * @param table
+	 *            roads to pick end points from
+	 * @param port
+	 *            server port
+	 * @param connections
+	 *            number of concurrent connections
+	 * @param requestsPerConnection
+	 * @param pipelineDepth
+	 *            requests each connection sends before waiting for a response
+	 */
+	public LoadGenerator(RoadTable table, int port, int connections, int requestsPerConnection, int pipelineDepth) {
+		this.table = table;
+		this.port = port;
+		this.connections = connections;
+		this.requestsPerConnection = requestsPerConnection;
+		this.pipelineDepth = Math.max(1, pipelineDepth);
+	}
+
+	/**
+	 * Usage: LoadGenerator [road file] [port] [connections] [requests per
+	 * connection] [pipeline depth]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final File roadFile = new File(args.length > 0 ? args[0] : "test.txt");
+		final int port = args.length > 1 ? Integer.parseInt(args[1]) : RouteServer.DEFAULT_PORT;
+		final int connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		final int requests = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		final int depth = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+
+		RoadTable table = RoadParser.parseRoadTable(roadFile, 1);
+		new LoadGenerator(table, port, connections, requests, depth).run();
+	}
+
+	/**
+	 * Run every connection to completion and print the results
+	 */
+	public void run() throws InterruptedException {
+		final List<Thread> threads = new ArrayList<>();
+		final long startTime = System.nanoTime();
+		for (int c = 0; c < connections; c++) {
+			final long seed = c;
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						drive(new Random(seed));
+					} catch (IOException e) {
+						System.out.println("Connection failed: " + e);
+						errors.addAndGet(requestsPerConnection);
+					}
+				}
+			}, "load-" + c);
+			t.start();
+			threads.add(t);
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		final double seconds = (System.nanoTime() - startTime) / 1e9;
+
+		final long total = latency.getCount();
+		System.out.printf("%d requests in %.2f s (%.0f requests/s), %d without a route, %d errors\n", total, seconds,
+				total / seconds, noRoute.get(), errors.get());
+		System.out.println("Latency ns: " + latency);
+	}
+
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	private void drive(Random random) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+				Writer out = new BufferedWriter(
+						new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+			// Send times of the requests in flight, oldest first
+			final long[] sent = new long[pipelineDepth];
+			int sentCount = 0;
+			int received = 0;
+			while (received < requestsPerConnection) {
+				// Top up the pipeline, then wait for the oldest response
+				while (sentCount < requestsPerConnection && sentCount - received < pipelineDepth) {
+					int start = random.nextInt(table.size());
+					int end = random.nextInt(table.size());
+					out.write("ROUTE " + table.getStartX(start) + " " + table.getStartY(start) + " "
+							+ table.getEndX(end) + " " + table.getEndY(end) + "\n");
+					sent[sentCount++ % pipelineDepth] = System.nanoTime();
+				}
+				out.flush();
+
+				String response = in.readLine();
+				if (response == null) {
+					throw new IOException("Server closed the connection");
+				}
+				latency.record(System.nanoTime() - sent[received++ % pipelineDepth]);
+				if (response.startsWith("NONE")) {
+					noRoute.incrementAndGet();
+				} else if (!response.startsWith("OK")) {
+					errors.incrementAndGet();
+				}
+			}
+
+			out.write("QUIT\n");
+		}
+	}
+}
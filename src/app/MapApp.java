@@ -1,13 +1,17 @@
 package app;
 
-import java.awt.Point;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -17,6 +21,7 @@ import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
+import javafx.scene.control.Label;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.TilePane;
 import javafx.scene.paint.Color;
@@ -33,31 +38,78 @@ public class MapApp extends Application {
 	private final int Y_DIM = 800;
 	private final int X_PADDING = 100;
 	private final int Y_PADDING = 100;
+	private final int REC_OFFSET = 5;
+	private final int REC_DIM = 8;
 	private RoadPoint activeStart = null;
 	private RoadPoint activeEnd = null;
 
+	// Where the map is drawn. Roads and the graph stay in world coordinates.
+	private Viewport viewport = null;
+
+	// Searches run on this thread so the UI stays responsive. Only one search
+	// is wanted at a time; starting another cancels it.
+	private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "pathfinder-search");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private SearchTask currentSearch = null;
+
+	// Only used on the search thread
+	private SearchWorkspace searchWorkspace = null;
+
+	// Path currently shown on the overlay
+	private List<Road> shownPath = null;
+
+	// Bounding box of everything drawn on the overlay since it was last cleared
+	private double dirtyMinX = Double.POSITIVE_INFINITY;
+	private double dirtyMinY = Double.POSITIVE_INFINITY;
+	private double dirtyMaxX = Double.NEGATIVE_INFINITY;
+	private double dirtyMaxY = Double.NEGATIVE_INFINITY;
+
 	@Override
 	public void start(Stage primaryStage) throws FileNotFoundException, IOException {
 		primaryStage.setTitle("Minneapolis Pathfinder");
 		Group root = new Group();
+
+		// The road network is drawn once on the base canvas. The selected points
+		// and the path go on a transparent overlay on top of it, so changing them
+		// only repaints the overlay.
+		Canvas baseCanvas = new Canvas(X_DIM, Y_DIM);
 		Canvas canvas = new Canvas(X_DIM, Y_DIM);
 		GraphicsContext gc = canvas.getGraphicsContext2D();
 
 		List<Road> roads = RoadParser.parseRoads(new File("test.txt"));
-		scaleRoads(roads);
-		drawRoads(roads, gc);
-		Map<RoadPoint, List<RoadPoint>> roadMap = RoadParser.buildRoadPointGraph(roads);
+		RoadGraph graph = RoadParser.buildRoadGraph(roads);
+		viewport = new Viewport(graph, X_DIM, Y_DIM, X_PADDING, Y_PADDING);
+		drawRoads(graph, baseCanvas.getGraphicsContext2D());
 
+		// Snaps clicks in screen coordinates, so it has to be rebuilt along with
+		// the viewport
+		SpatialIndex index = new SpatialIndex(viewport.screenXs(graph), viewport.screenYs(graph));
+
+		root.getChildren().add(baseCanvas);
 		root.getChildren().add(canvas);
+		Label status = new Label();
 		Button bfs = new Button("BFS");
 		bfs.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent event) {
 				System.out.println("Go BFS");
-				redraw(roads, gc);
-				List<Road> path = Pathfinder.getOptimalPath(roads, roadMap, null, activeStart, activeEnd,
-						Pathfinder.AlgorithmType.BFS);
-				drawOptimalPath(path, gc);
+				startSearch(graph, Pathfinder.AlgorithmType.BFS, gc, status);
+			}
+		});
+
+		Button dijkstra = new Button("Dijkstra");
+		dijkstra.setOnAction(new EventHandler<ActionEvent>() {
+			@Override
+			public void handle(ActionEvent event) {
+				System.out.println("Go Dijkstra");
+				startSearch(graph, Pathfinder.AlgorithmType.DIJKSTRA, gc, status);
 			}
 		});
 
@@ -66,11 +118,7 @@ public class MapApp extends Application {
 			@Override
 			public void handle(ActionEvent event) {
 				System.out.println("Go A*");
-				redraw(roads,gc);
-				Map<RoadPoint, Double> heuristics = Pathfinder.calculateHeuristics(roads, activeEnd);
-				List<Road> path = Pathfinder.getOptimalPath(roads, roadMap, heuristics, activeStart, activeEnd,
-						Pathfinder.AlgorithmType.ASTAR);
-				drawOptimalPath(path, gc);
+				startSearch(graph, Pathfinder.AlgorithmType.ASTAR, gc, status);
 			}
 		});
 
@@ -79,27 +127,45 @@ public class MapApp extends Application {
 			@Override
 			public void handle(ActionEvent event) {
 				System.out.println("Go IDA*");
-				redraw(roads, gc);
-				List<Road> path = Pathfinder.getOptimalPath(roads, roadMap, null, activeStart, activeEnd,
-						Pathfinder.AlgorithmType.IDASTAR);
-				drawOptimalPath(path, gc);
+				startSearch(graph, Pathfinder.AlgorithmType.IDASTAR, gc, status);
+			}
+		});
+
+		Button biDijkstra = new Button("Bi-Dijkstra");
+		biDijkstra.setOnAction(new EventHandler<ActionEvent>() {
+			@Override
+			public void handle(ActionEvent event) {
+				System.out.println("Go bidirectional Dijkstra");
+				startSearch(graph, Pathfinder.AlgorithmType.BIDIRECTIONAL_DIJKSTRA, gc, status);
+			}
+		});
+
+		Button biAstar = new Button("Bi-A*");
+		biAstar.setOnAction(new EventHandler<ActionEvent>() {
+			@Override
+			public void handle(ActionEvent event) {
+				System.out.println("Go bidirectional A*");
+				startSearch(graph, Pathfinder.AlgorithmType.BIDIRECTIONAL_ASTAR, gc, status);
 			}
 		});
 
 		bfs.setStyle("-fx-focus-color: transparent; -fx-faint-focus-color: transparent;");
+		dijkstra.setStyle("-fx-focus-color: transparent; -fx-faint-focus-color: transparent;");
 		astar.setStyle("-fx-focus-color: transparent; -fx-faint-focus-color: transparent;");
 		idastar.setStyle("-fx-focus-color: transparent; -fx-faint-focus-color: transparent;");
+		biDijkstra.setStyle("-fx-focus-color: transparent; -fx-faint-focus-color: transparent;");
+		biAstar.setStyle("-fx-focus-color: transparent; -fx-faint-focus-color: transparent;");
 
 		TilePane tileButtons = new TilePane(Orientation.HORIZONTAL);
 		tileButtons.setPadding(new Insets(10, 5, 10, 0));
 		tileButtons.setHgap(10.0);
-		tileButtons.getChildren().addAll(bfs, astar, idastar);
+		tileButtons.getChildren().addAll(bfs, dijkstra, astar, idastar, biDijkstra, biAstar, status);
 		root.getChildren().add(tileButtons);
 		canvas.addEventFilter(MouseEvent.MOUSE_PRESSED, new EventHandler<MouseEvent>() {
 
 			@Override
 			public void handle(MouseEvent event) {
-				RoadPoint p = getRoadPointAtOrAround(roads, new Point((int) event.getX(), (int) event.getY()));
+				RoadPoint p = getRoadPointAtOrAround(graph, index, event.getX(), event.getY());
 
 				// If user clicks empty part on map
 				if (p == null) {
@@ -116,9 +182,12 @@ public class MapApp extends Application {
 					activeEnd = p;
 				}
 
-				// Reset pane, redraw to show selected point
-				gc.clearRect(0, 0, X_DIM, Y_DIM);
-				drawRoads(roads, gc);
+				// Redraw the overlay to show the selected point, without the old path,
+				// and drop any search for the old points
+				cancelSearch();
+				status.setText("");
+				shownPath = null;
+				drawOverlay(gc);
 			}
 
 		});
@@ -127,106 +196,172 @@ public class MapApp extends Application {
 		primaryStage.show();
 	}
 
-	private void redraw(List<Road> roads, GraphicsContext gc) {
-		// Reset pane, redraw to show selected point
-		gc.clearRect(0, 0, X_DIM, Y_DIM);
-		drawRoads(roads, gc);
+	@Override
+	public void stop() {
+		searchExecutor.shutdownNow();
 	}
 
 	/**
-	 * Returns road start or end point closest to point p
-	 * 
-	 * @param roads
-	 * @param p
-	 * @return road start or end point, or null if no close point was pressed
+	 * Search for a path between the selected points in the background, showing
+	 * the search frontier as it goes and the path when it is done
 	 */
-	private RoadPoint getRoadPointAtOrAround(List<Road> roads, Point p) {
-		final int MAX_ERROR_DISTANCE = 10;
-		double minDistance = Double.MAX_VALUE;
-		RoadPoint closestPoint = null;
-
-		// Loop through all the roads, try to find which road (and start/end point) was
-		// clicked
-		for (Road r : roads) {
-			final Point startPoint = r.getStartPoint().getPoint();
-			final Point endPoint = r.getEndPoint().getPoint();
-
-			if (p.distance(startPoint) < minDistance) {
-				closestPoint = new RoadPoint(startPoint);
-				minDistance = p.distance(startPoint);
-			}
-
-			if (p.distance(endPoint) < minDistance) {
-				closestPoint = new RoadPoint(endPoint);
-				minDistance = p.distance(endPoint);
-			}
+	private void startSearch(RoadGraph graph, Pathfinder.AlgorithmType type, GraphicsContext gc, Label status) {
+		cancelSearch();
+		shownPath = null;
+		drawOverlay(gc);
+
+		int start = graph.getVertex(activeStart);
+		int end = graph.getVertex(activeEnd);
+		if (start < 0 || end < 0) {
+			status.setText("Pick a start and an end point");
+			return;
 		}
 
-		if (minDistance > MAX_ERROR_DISTANCE) {
-			return null;
-		}
+		status.setText("Searching...");
+		currentSearch = new SearchTask(graph, type, start, end, gc, status);
+		searchExecutor.execute(currentSearch);
+	}
 
-		return closestPoint;
+	private void cancelSearch() {
+		if (currentSearch != null) {
+			currentSearch.cancelled = true;
+			currentSearch = null;
+		}
 	}
 
-	private void scaleRoads(List<Road> roads) {
-		// First compute positioning
-		double minX = Integer.MAX_VALUE;
-		double minY = Integer.MAX_VALUE;
-		double maxX = 0;
-		double maxY = 0;
+	/**
+	 * One background search. Everything it shows goes through Platform.runLater
+	 * and is dropped if the search was replaced in the meantime.
+	 */
+	private class SearchTask implements Runnable, SearchMonitor {
+		private final RoadGraph graph;
+		private final Pathfinder.AlgorithmType type;
+		private final int start;
+		private final int end;
+		private final GraphicsContext gc;
+		private final Label status;
+
+		volatile boolean cancelled = false;
+
+		// Latest progress, and whether the UI thread has yet to show it. Keeps at
+		// most one progress update queued however fast the search reports.
+		private volatile int expanded;
+		private volatile int frontierVertex;
+		private final AtomicBoolean progressQueued = new AtomicBoolean();
+
+		SearchTask(RoadGraph graph, Pathfinder.AlgorithmType type, int start, int end, GraphicsContext gc,
+				Label status) {
+			this.graph = graph;
+			this.type = type;
+			this.start = start;
+			this.end = end;
+			this.gc = gc;
+			this.status = status;
+		}
 
-		for (Road r : roads) {
-			Point start = r.getStartPoint().getPoint();
-			Point end = r.getEndPoint().getPoint();
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
 
-			// Update minX
-			minX = Math.min(minX, start.x);
-			minX = Math.min(minX, end.x);
+			if (searchWorkspace == null || searchWorkspace.getGraph() != graph) {
+				searchWorkspace = new SearchWorkspace(graph);
+			}
+			searchWorkspace.setMonitor(this);
+
+			final long startTime = System.nanoTime();
+			final List<Road> path;
+			try {
+				path = Pathfinder.toRoads(graph,
+						Pathfinder.getOptimalEdgePath(searchWorkspace, null, start, end, type));
+			} catch (CancellationException e) {
+				return;
+			} finally {
+				searchWorkspace.setMonitor(null);
+			}
+			final long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
 
-			// Update minY
-			minY = Math.min(minY, start.y);
-			minY = Math.min(minY, end.y);
+			Platform.runLater(new Runnable() {
 
-			// Update maxX
-			maxX = Math.max(maxX, start.x);
-			maxX = Math.max(maxX, end.x);
+				@Override
+				public void run() {
+					if (currentSearch != SearchTask.this) {
+						return;
+					}
 
-			// Update maxY
-			maxY = Math.max(maxY, start.y);
-			maxY = Math.max(maxY, end.y);
+					currentSearch = null;
+					shownPath = path;
+					drawOverlay(gc);
+					status.setText(path.isEmpty() ? "No path" : path.size() + " roads in " + elapsedMillis + " ms");
+				}
+			});
 		}
 
-		minX -= X_PADDING;
-		maxX += X_PADDING;
-		minY -= Y_PADDING;
-		maxY += Y_PADDING;
-		final double xScale = (maxX - minX) / X_DIM;
-		final double yScale = (maxY - minY) / Y_DIM;
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
 
-		// Subtract off, scale, add padding to x/y values
-		for (Road r : roads) {
-			Point start = r.getStartPoint().getPoint();
-			Point end = r.getEndPoint().getPoint();
-			start.x -= minX;
-			start.y -= minY;
+		@Override
+		public void progress(int expanded, int frontierVertex) {
+			this.expanded = expanded;
+			this.frontierVertex = frontierVertex;
+			if (!progressQueued.compareAndSet(false, true)) {
+				return;
+			}
 
-			end.x -= minX;
-			end.y -= minY;
+			Platform.runLater(new Runnable() {
 
-			start.x /= xScale;
-			start.y /= yScale;
+				@Override
+				public void run() {
+					progressQueued.set(false);
+					if (currentSearch != SearchTask.this) {
+						return;
+					}
 
-			end.x /= xScale;
-			end.y /= yScale;
+					int v = SearchTask.this.frontierVertex;
+					status.setText("Searching... " + SearchTask.this.expanded + " vertices expanded");
+					drawFrontier(viewport.screenX(graph.getX(v)), viewport.screenY(graph.getY(v)), gc);
+				}
+			});
+		}
+	}
 
-			int sYDiff = start.y - (Y_DIM / 2);
-			int eYDiff = end.y - (Y_DIM / 2);
+	/**
+	 * Returns road start or end point closest to the clicked point
+	 * 
+	 * @param graph
+	 * @param index
+	 *            spatial index over the graph's vertices
+	 * @param x
+	 * @param y
+	 * @return road start or end point, or null if no close point was pressed
+	 */
+	private RoadPoint getRoadPointAtOrAround(RoadGraph graph, SpatialIndex index, double x, double y) {
+		final int MAX_ERROR_DISTANCE = 10;
+		int v = index.nearest(x, y, MAX_ERROR_DISTANCE);
+		if (v < 0) {
+			return null;
+		}
 
-			start.y = (Y_DIM / 2) + (-1) * (sYDiff);
-			end.y = (Y_DIM / 2) + (-1) * (eYDiff);
+		return graph.getRoadPoint(v);
+	}
 
+	/**
+	 * Clear what was drawn on the overlay, then draw the shown path and the
+	 * selected points. Costs O(path length), whatever the size of the map.
+	 */
+	private void drawOverlay(GraphicsContext gc) {
+		if (dirtyMinX <= dirtyMaxX) {
+			gc.clearRect(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY);
 		}
+		dirtyMinX = dirtyMinY = Double.POSITIVE_INFINITY;
+		dirtyMaxX = dirtyMaxY = Double.NEGATIVE_INFINITY;
+
+		drawOptimalPath(shownPath, gc);
+		drawMarker(activeStart, Color.GREEN, gc);
+		drawMarker(activeEnd, Color.RED, gc);
 	}
 
 	private void drawOptimalPath(List<Road> path, GraphicsContext gc) {
@@ -237,53 +372,62 @@ public class MapApp extends Application {
 		gc.setLineWidth(3);
 
 		for (Road r : path) {
-			Point start = r.getStartPoint().getPoint();
-			Point end = r.getEndPoint().getPoint();
-			gc.strokeLine(start.getX(), start.getY(), end.getX(), end.getY());
+			double startX = viewport.screenX(r.getStartPoint().getX());
+			double startY = viewport.screenY(r.getStartPoint().getY());
+			double endX = viewport.screenX(r.getEndPoint().getX());
+			double endY = viewport.screenY(r.getEndPoint().getY());
+			gc.strokeLine(startX, startY, endX, endY);
+
+			// Pad by the line width
+			markDirty(Math.min(startX, endX) - 2, Math.min(startY, endY) - 2, Math.max(startX, endX) + 2,
+					Math.max(startY, endY) + 2);
 		}
 	}
 
-	private void drawRoads(List<Road> roads, GraphicsContext gc) {
+	private void drawMarker(RoadPoint p, Color color, GraphicsContext gc) {
+		if (p == null)
+			return;
+
+		double x = viewport.screenX(p.getX());
+		double y = viewport.screenY(p.getY());
+		gc.setFill(color);
+		gc.fillRect(x - REC_OFFSET, y - REC_OFFSET, REC_DIM, REC_DIM);
+		markDirty(x - REC_OFFSET, y - REC_OFFSET, x - REC_OFFSET + REC_DIM, y - REC_OFFSET + REC_DIM);
+	}
+
+	private void drawFrontier(double x, double y, GraphicsContext gc) {
+		gc.setFill(Color.ORANGE);
+		gc.fillRect(x - REC_OFFSET / 2, y - REC_OFFSET / 2, REC_DIM / 2, REC_DIM / 2);
+		markDirty(x - REC_OFFSET / 2, y - REC_OFFSET / 2, x - REC_OFFSET / 2 + REC_DIM / 2,
+				y - REC_OFFSET / 2 + REC_DIM / 2);
+	}
+
+	private void markDirty(double minX, double minY, double maxX, double maxY) {
+		dirtyMinX = Math.min(dirtyMinX, minX);
+		dirtyMinY = Math.min(dirtyMinY, minY);
+		dirtyMaxX = Math.max(dirtyMaxX, maxX);
+		dirtyMaxY = Math.max(dirtyMaxY, maxY);
+	}
+
+	// Draw the static map: every road, then a marker on every road point
+	private void drawRoads(RoadGraph graph, GraphicsContext gc) {
 		final Color lineColor = Color.BLACK;
 		final Color defaultColor = Color.LIGHTGRAY;
-		final Color startColor = Color.GREEN;
-		final Color endColor = Color.RED;
 
 		gc.setStroke(lineColor);
 		gc.setLineWidth(1);
 
 		// Paint roads now
-		for (Road r : roads) {
-			Point start = r.getStartPoint().getPoint();
-			Point end = r.getEndPoint().getPoint();
-			gc.strokeLine(start.getX(), start.getY(), end.getX(), end.getY());
-
-			final int REC_OFFSET = 5;
-			final int REC_DIM = 8;
-
-			// Color start point
-			gc.setFill(defaultColor);
-			if (activeStart != null && activeStart.equals(r.getStartPoint())) {
-				gc.setFill(startColor);
-			}
-
-			if (activeEnd != null && activeEnd.equals(r.getStartPoint())) {
-				gc.setFill(endColor);
-			}
-
-			gc.fillRect(start.x - REC_OFFSET, start.y - REC_OFFSET, REC_DIM, REC_DIM);
-
-			// Color end point
-			gc.setFill(defaultColor);
-			if (activeStart != null && activeStart.equals(r.getEndPoint())) {
-				gc.setFill(startColor);
-			}
-
-			if (activeEnd != null && activeEnd.equals(r.getEndPoint())) {
-				gc.setFill(endColor);
-			}
+		for (Road r : graph.getRoads()) {
+			gc.strokeLine(viewport.screenX(r.getStartPoint().getX()), viewport.screenY(r.getStartPoint().getY()),
+					viewport.screenX(r.getEndPoint().getX()), viewport.screenY(r.getEndPoint().getY()));
+		}
 
-			gc.fillRect(end.x - REC_OFFSET, end.y - REC_OFFSET, REC_DIM, REC_DIM);
+		// Road points are shared by several roads, paint each one once
+		gc.setFill(defaultColor);
+		for (int v = 0; v < graph.getVertexCount(); v++) {
+			gc.fillRect(viewport.screenX(graph.getX(v)) - REC_OFFSET, viewport.screenY(graph.getY(v)) - REC_OFFSET,
+					REC_DIM, REC_DIM);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Caches the estimates of another heuristic in a primitive array so each vertex
+ * is evaluated at most once per query. The cache is meant to be kept and reused
+ * across queries: {@link #reset(Heuristic)} invalidates every entry in O(1) by
+ * bumping a generation stamp instead of clearing the arrays.
+ */
+public class MemoizedHeuristic implements Heuristic {
+	private final double[] estimates;
+
+	// estimates[v] is valid only if stamps[v] == generation
+	private final int[] stamps;
+	private int generation;
+	private Heuristic heuristic;
+
+	public MemoizedHeuristic(int vertexCount) {
+		estimates = new double[vertexCount];
+		stamps = new int[vertexCount];
+	}
+
+	/**
+	 * Start caching a new heuristic, dropping all cached estimates
+	 *
+	 * @param heuristic
+	 * @return this
+	 */
+	public MemoizedHeuristic reset(Heuristic heuristic) {
+		this.heuristic = heuristic;
+		generation++;
+
+		// On wrap-around stale stamps could collide with new generations
+		if (generation == 0) {
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+
+		return this;
+	}
+
+	@Override
+	public double estimate(int vertex) {
+		if (stamps[vertex] == generation) {
+			return estimates[vertex];
+		}
+
+		double estimate = heuristic.estimate(vertex);
+		estimates[vertex] = estimate;
+		stamps[vertex] = generation;
+		return estimate;
+	}
+}
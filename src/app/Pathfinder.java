@@ -1,222 +1,397 @@
 package app;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
 
 import models.Road;
 import models.RoadPoint;
 
 public class Pathfinder {
 	public enum AlgorithmType {
-		BFS, ASTAR, IDASTAR
+		BFS, DIJKSTRA, ASTAR, IDASTAR, BIDIRECTIONAL_DIJKSTRA, BIDIRECTIONAL_ASTAR
 	}
 
+	private static final int[] NO_PATH = new int[0];
+
+	// Threshold growth factor for IDA*
+	static final double IDASTAR_GROWTH = 1.5;
+
+	// Most transposition table entries IDA* keeps, whatever the graph size.
+	// Vertices beyond it share slots, each arrival replacing the last.
+	static final int IDASTAR_TABLE_SIZE = 1 << 16;
+
 	/**
 	 * Compute and return the optimal path from the start to the end point
-	 * 
-	 * @param roads
-	 * @param roadsMap
+	 *
+	 * @param graph
+	 * @param heuristic
+	 *            A* heuristic for the end point, or null for straight line
+	 *            distance. Bidirectional A* always uses straight line distance
+	 *            for its backward search.
 	 * @param startPoint
 	 * @param endPoint
 	 * @param type
 	 *            which search algorithm to use
-	 * @return the optimal path from the start to the end point
+	 * @return the roads of the optimal path in order from the start to the end
+	 *         point, empty if there is none
+	 */
+	public static List<Road> getOptimalPath(RoadGraph graph, Heuristic heuristic, RoadPoint startPoint,
+			RoadPoint endPoint, AlgorithmType type) {
+		int[] edgePath = getOptimalEdgePath(graph, heuristic, startPoint, endPoint, type);
+		if (edgePath == null) {
+			return null;
+		}
+
+		return toRoads(graph, edgePath);
+	}
+
+	/**
+	 * Same as {@link #getOptimalPath}, but returns the path as graph edge ids
+	 * without building any Road list
+	 *
+	 * @return edge ids of the optimal path in order from the start to the end
+	 *         point, empty if there is none
+	 */
+	public static int[] getOptimalEdgePath(RoadGraph graph, Heuristic heuristic, RoadPoint startPoint,
+			RoadPoint endPoint, AlgorithmType type) {
+
+		final int start = graph.getVertex(startPoint);
+		final int end = graph.getVertex(endPoint);
+		if (start < 0 || end < 0) {
+			return NO_PATH;
+		}
+
+		return getOptimalEdgePath(new SearchWorkspace(graph), heuristic, start, end, type);
+	}
+
+	/**
+	 * Same as {@link #getOptimalEdgePath(RoadGraph, Heuristic, RoadPoint, RoadPoint, AlgorithmType)},
+	 * but between vertex ids, reusing the search state in workspace
+	 *
+	 * @param workspace
+	 *            search state for the graph, not shared with any other thread
+	 * @param heuristic
+	 * @param start
+	 * @param end
+	 * @param type
+	 * @return edge ids of the optimal path in order from the start to the end
+	 *         vertex, empty if there is none
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the workspace's monitor cancelled the search
 	 */
-	public static List<Road> getOptimalPath(List<Road> roads, Map<RoadPoint, List<RoadPoint>> roadsMap,
-			Map<RoadPoint, Double> heuristics, RoadPoint startPoint, RoadPoint endPoint, AlgorithmType type) {
+	public static int[] getOptimalEdgePath(SearchWorkspace workspace, Heuristic heuristic, int start, int end,
+			AlgorithmType type) {
+		final RoadGraph graph = workspace.getGraph();
+		final SearchStats stats = workspace.stats;
+		long startTime = 0;
+		if (stats != null) {
+			stats.reset(type);
+			startTime = System.nanoTime();
+		}
 
-		List<Road> optimalPath = null;
+		// Skip the search when the end can't be reached at all, e.g. because of
+		// one-way roads
+		if (start != end && !graph.getConnectivity().canReach(start, end)) {
+			if (stats != null) {
+				stats.heuristicNanos = System.nanoTime() - startTime;
+			}
+			return NO_PATH;
+		}
+
+		// Set up the heuristics the algorithm needs
+		Heuristic toEnd = null;
+		Heuristic toStart = null;
+		if (type == AlgorithmType.ASTAR || type == AlgorithmType.IDASTAR
+				|| type == AlgorithmType.BIDIRECTIONAL_ASTAR) {
+			toEnd = heuristic != null ? heuristic : Heuristic.straightLine(graph, end);
+		}
+		if (type == AlgorithmType.IDASTAR) {
+			// IDA* revisits vertices every iteration, so cache the heuristic
+			toEnd = workspace.memoizedHeuristic.reset(toEnd);
+		}
+		if (type == AlgorithmType.BIDIRECTIONAL_ASTAR) {
+			toStart = Heuristic.straightLine(graph, start);
+		}
+
+		long searchTime = 0;
+		if (stats != null) {
+			searchTime = System.nanoTime();
+			stats.heuristicNanos = searchTime - startTime;
+		}
+
+		int[] optimalPath = null;
 		switch (type) {
 		case BFS:
-			optimalPath = doBFSAlg(roads, roadsMap, startPoint, endPoint);
+			optimalPath = doBFSAlg(workspace, start, end);
+			break;
+		case DIJKSTRA:
+			optimalPath = doDijkstraAlg(workspace, start, end);
 			break;
 		case ASTAR:
-			optimalPath = doAStarAlg(roads, roadsMap, heuristics, startPoint, endPoint);
+			optimalPath = doAStarAlg(workspace, toEnd, start, end);
 			break;
 		case IDASTAR:
-			optimalPath = doIDAStarAlg(roads, roadsMap, startPoint, endPoint);
+			optimalPath = workspace.idaStarSearch().search(toEnd, start, end);
 			break;
+		case BIDIRECTIONAL_DIJKSTRA:
+		case BIDIRECTIONAL_ASTAR:
+			optimalPath = workspace.bidirectionalSearch().search(toEnd, toStart, start, end);
+			break;
+		}
+
+		if (stats != null) {
+			// The engines time their own reconstruction
+			stats.searchNanos = System.nanoTime() - searchTime - stats.reconstructNanos;
+			stats.pathLength = optimalPath.length;
 		}
 
 		return optimalPath;
 	}
 
-	private static Road findRoad(List<Road> roads, RoadPoint p1, RoadPoint p2) {
-		for (Road r : roads) {
-			if (r.getStartPoint().equals(p1) && r.getEndPoint().equals(p2)
-					|| r.getStartPoint().equals(p2) && r.getEndPoint().equals(p1))
-				return r;
+	/**
+	 * Map a path of edge ids to the roads they were built from
+	 *
+	 * @param graph
+	 * @param edgePath
+	 * @return
+	 */
+	public static List<Road> toRoads(RoadGraph graph, int[] edgePath) {
+		List<Road> roads = new ArrayList<>(edgePath.length);
+		for (int e : edgePath) {
+			roads.add(graph.edgeRoad(e));
 		}
 
-		return null;
+		return roads;
 	}
 
-	// Start at endPoint, work our way back to the start using parent map
-	private static List<Road> reconstructPath(List<Road> roads, Map<RoadPoint, RoadPoint> parentMap,
-			RoadPoint endPoint) {
-		List<Road> optimalPath = new ArrayList<>();
-		RoadPoint curNode = endPoint;
-		while (curNode != null) {
-			RoadPoint prevNode = parentMap.get(curNode);
-			Road r = findRoad(roads, curNode, prevNode);
-			if (r != null) {
-				optimalPath.add(r);
-			}
-			
-			// Sanity check -- will cycle forever otherwise
-			if(curNode.equals(prevNode)) {
-				return null;
+	// Start at endPoint, work our way back to the start using the edge each
+	// vertex was reached by. The parent edge is -1 for the start and for
+	// unreached vertices.
+	private static int[] reconstructPath(SearchWorkspace workspace, int startPoint, int endPoint) {
+		final SearchStats stats = workspace.stats;
+		if (stats == null) {
+			return reconstructPath(workspace.getGraph(), workspace.state, startPoint, endPoint);
+		}
+
+		long startTime = System.nanoTime();
+		int[] path = reconstructPath(workspace.getGraph(), workspace.state, startPoint, endPoint);
+		stats.reconstructNanos = System.nanoTime() - startTime;
+		return path;
+	}
+
+	static int[] reconstructPath(RoadGraph graph, SearchState state, int startPoint, int endPoint) {
+		int length = 0;
+		for (int cur = endPoint; cur != startPoint; cur = graph.edgeSource(state.parentEdge(cur))) {
+			// Either the end was never reached or the parent edges don't lead back to
+			// the start -- would cycle forever otherwise
+			if (state.parentEdge(cur) < 0 || length == graph.getVertexCount()) {
+				return NO_PATH;
 			}
+			length++;
+		}
 
-			curNode = prevNode;
+		int[] optimalPath = new int[length];
+		for (int cur = endPoint; cur != startPoint; cur = graph.edgeSource(state.parentEdge(cur))) {
+			optimalPath[--length] = state.parentEdge(cur);
 		}
 
 		return optimalPath;
 	}
 
-	private static List<Road> doBFSAlg(List<Road> roads, Map<RoadPoint, List<RoadPoint>> roadsMap, RoadPoint startPoint,
-			RoadPoint endPoint) {
+	private static int[] doBFSAlg(SearchWorkspace workspace, int startPoint, int endPoint) {
+		final RoadGraph graph = workspace.getGraph();
 
-		LinkedList<RoadPoint> queue = new LinkedList<>();
-		Set<RoadPoint> visited = new HashSet<>();
+		// Vertices are enqueued at most once, so a flat array is enough
+		final int[] queue = workspace.bfsQueue;
+		final SearchMonitor monitor = workspace.monitor;
+		int head = 0;
+		int tail = 0;
 
-		// Keep track of which node added another node to allow path retrieval at the
-		// end
-		Map<RoadPoint, RoadPoint> parentMap = new HashMap<>();
+		// Keep track of which edge reached each node to allow path retrieval at the
+		// end. Reached vertices are the visited set.
+		final SearchState state = workspace.state;
+		state.reset();
 
-		queue.add(startPoint);
+		state.reach(startPoint, 0, -1);
+		queue[tail++] = startPoint;
+
+		int relaxed = 0;
 
 		// BFS
-		while (queue.size() != 0) {
-			RoadPoint cur = queue.poll();
-			if (cur == null)
+		while (head != tail) {
+			int cur = queue[head++];
+			if (cur == endPoint) {
 				break;
+			}
 
-			visited.add(cur);
-			if (cur.equals(endPoint)) {
-				break;
+			if (monitor != null && head % SearchMonitor.INTERVAL == 0) {
+				SearchWorkspace.checkpoint(monitor, head, cur);
 			}
 
-			// Get all neighbors and add them to queue if they haven't been visited already
-			List<RoadPoint> neighbors = roadsMap.get(cur);
-			if (neighbors != null) {
-				for (RoadPoint p : neighbors) {
-					if (!visited.contains(p)) {
-						visited.add(p);
-						parentMap.put(p, cur);
-						queue.add(p);
-					}
+			// Add all neighbors to queue if they haven't been visited already
+			relaxed += graph.edgeEnd(cur) - graph.edgeStart(cur);
+			for (int e = graph.edgeStart(cur); e < graph.edgeEnd(cur); e++) {
+				int p = graph.edgeTarget(e);
+				if (!state.reached(p)) {
+					state.reach(p, state.dist(cur) + 1, e);
+					queue[tail++] = p;
 				}
 			}
 		}
 
-		// Reconstruct the optimal path with parentMap
-		List<Road> optimalPath = reconstructPath(roads, parentMap, endPoint);
+		final SearchStats stats = workspace.stats;
+		if (stats != null) {
+			stats.settled = head;
+			stats.pops = head;
+			stats.pushes = tail;
+			stats.relaxed = relaxed;
+		}
 
-		return optimalPath;
+		// Reconstruct the optimal path with the parent edges
+		return reconstructPath(workspace, startPoint, endPoint);
 	}
 
-	// We'll use straight line distance as a heuristic
-	public static Map<RoadPoint, Double> calculateHeuristics(List<Road> roads, RoadPoint endPoint) {
-		Map<RoadPoint, Double> heuristics = new HashMap<>();
-		for (Road r : roads) {
-			heuristics.put(r.getStartPoint(), endPoint.getPoint().distance(r.getStartPoint().getPoint()));
-			heuristics.put(r.getEndPoint(), endPoint.getPoint().distance(r.getEndPoint().getPoint()));
+	// Dijkstra on the graph's fixed-point edge lengths. Integer keys let the
+	// radix heap replace the comparison heap, and distances stay exact.
+	private static int[] doDijkstraAlg(SearchWorkspace workspace, int startPoint, int endPoint) {
+		final RoadGraph graph = workspace.getGraph();
+		final SearchState state = workspace.state;
+		final RadixHeap queue = workspace.radixHeap();
+		final SearchMonitor monitor = workspace.monitor;
+
+		int settled = 0;
+		int pops = 0;
+		int pushes = 1;
+		int relaxed = 0;
+
+		state.reset();
+		queue.clear();
+		state.reach(startPoint, 0, -1);
+		queue.push(startPoint, 0);
+
+		while (!queue.isEmpty()) {
+			int cur = queue.pop();
+			pops++;
+
+			// The heap has no decrease-key, so skip entries superseded by a later push
+			long curDist = queue.lastKey();
+			if (curDist > state.dist(cur)) {
+				continue;
+			}
+
+			if (cur == endPoint) {
+				break;
+			}
+
+			if (++settled % SearchMonitor.INTERVAL == 0 && monitor != null) {
+				SearchWorkspace.checkpoint(monitor, settled, cur);
+			}
+
+			relaxed += graph.edgeEnd(cur) - graph.edgeStart(cur);
+			for (int e = graph.edgeStart(cur); e < graph.edgeEnd(cur); e++) {
+				int neighbor = graph.edgeTarget(e);
+				long newDist = curDist + graph.edgeLength(e);
+				if (newDist < state.dist(neighbor)) {
+					state.reach(neighbor, newDist, e);
+					queue.push(neighbor, newDist);
+					pushes++;
+				}
+			}
+		}
+
+		final SearchStats stats = workspace.stats;
+		if (stats != null) {
+			stats.settled = settled;
+			stats.pops = pops;
+			stats.pushes = pushes;
+			stats.relaxed = relaxed;
 		}
 
-		return heuristics;
+		return reconstructPath(workspace, startPoint, endPoint);
 	}
 
-	private static List<Road> doAStarAlg(List<Road> roads, Map<RoadPoint, List<RoadPoint>> roadsMap,
-			Map<RoadPoint, Double> heuristics, RoadPoint startPoint, RoadPoint endPoint) {
+	private static int[] doAStarAlg(SearchWorkspace workspace, Heuristic heuristic, int startPoint,
+			int endPoint) {
+		final RoadGraph graph = workspace.getGraph();
 
-		// Map a road point to its path length from the start
-		Map<RoadPoint, Double> gCosts = new HashMap<>();
+		// Path length of each vertex from the start, and which edge reached it to
+		// allow path retrieval at the end
+		final SearchState state = workspace.state;
 
 		// Nodes that have been visited but not expanded (i.e sucessors haven't been
-		// explored yet). We store these in increasing f-cost order.
+		// explored yet), keyed by f-cost so the lowest comes out first.
 		// f(n) = g(n) + h(n) or total-cost(n) = path-cost(n) + heuristic(n)
-		PriorityQueue<RoadPoint> openList = new PriorityQueue<RoadPoint>(new Comparator<RoadPoint>() {
-
-			@Override
-			public int compare(RoadPoint o1, RoadPoint o2) {
-				// Nodes with low f-costs come first
-				double f1Cost = gCosts.getOrDefault(o1, Double.MAX_VALUE) + heuristics.get(o1);
-				double f2Cost = gCosts.getOrDefault(o2, Double.MAX_VALUE) + heuristics.get(o2);
-				return Double.compare(f1Cost, f2Cost);
-			}
-		});
+		final IndexedHeap openList = state.queue;
+		final SearchMonitor monitor = workspace.monitor;
+		int expanded = 0;
 
-		// Nodes that have been visited and expanded
-		Set<RoadPoint> closedList = new HashSet<>();
-
-		// Keep track of which node added another node to allow path retrieval at the
-		// end
-		Map<RoadPoint, RoadPoint> parentMap = new HashMap<>();
+		// Work done, for the stats
+		int pops = 0;
+		int pushes = 1;
+		int decreaseKeys = 0;
+		int reopened = 0;
+		int relaxed = 0;
 
 		// Add start point
-		gCosts.put(startPoint, 0.0);
-		openList.add(startPoint);
+		state.reset();
+		state.reach(startPoint, 0.0, -1);
+		openList.push(startPoint, heuristic.estimate(startPoint));
 
 		// Keep going until all nodes have been expanded or we find the goal
 		while (!openList.isEmpty()) {
 
 			// Get node with lowest f-cost
-			RoadPoint curNode = openList.remove();
+			int curNode = openList.pop();
+			pops++;
 
 			// Stop if we found the goal
-			if (curNode.equals(endPoint)) {
+			if (curNode == endPoint) {
 				break;
 			}
 
-			if (roadsMap.containsKey(curNode)) {
-				// Generate each successor that comes after curNode
-				for (RoadPoint neighbor : roadsMap.get(curNode)) {
-					// Calculate g-cost of this neighbor assuming we use curNode's path
-					double newNeighborGCost = gCosts.get(curNode) + curNode.getPoint().distance(neighbor.getPoint());
-					double oldNeighborGCost = gCosts.getOrDefault(neighbor, Double.MAX_VALUE);
-
-					if (openList.contains(neighbor)) {
-						if (oldNeighborGCost <= newNeighborGCost) {
-
-						} else {
-							gCosts.put(neighbor, newNeighborGCost);
-							parentMap.put(neighbor, curNode);
-						}
-					} else if (closedList.contains(neighbor)) {
-						if (oldNeighborGCost <= newNeighborGCost) {
-
-						} else {
-							// Move neighbor from the closed list to the open list
-							closedList.remove(neighbor);
-							openList.add(neighbor);
-							gCosts.put(neighbor, newNeighborGCost);
-							parentMap.put(neighbor, curNode);
-						}
-					} else {
-						openList.add(neighbor);
-						gCosts.put(neighbor, newNeighborGCost);
-						parentMap.put(neighbor, curNode);
-					}
+			if (monitor != null && ++expanded % SearchMonitor.INTERVAL == 0) {
+				SearchWorkspace.checkpoint(monitor, expanded, curNode);
+			}
+
+			// Generate each successor that comes after curNode
+			relaxed += graph.edgeEnd(curNode) - graph.edgeStart(curNode);
+			for (int e = graph.edgeStart(curNode); e < graph.edgeEnd(curNode); e++) {
+				int neighbor = graph.edgeTarget(e);
 
+				// Calculate g-cost of this neighbor assuming we use curNode's path
+				double newNeighborGCost = state.dist(curNode) + graph.edgeWeight(e);
+				if (newNeighborGCost >= state.dist(neighbor)) {
+					continue;
 				}
-			}
 
-			closedList.add(curNode);
+				// Found a shorter path. If the neighbor is still open this is a
+				// decrease-key; if it was never seen or already expanded (only possible
+				// with an inconsistent heuristic) it goes back on the open list.
+				double fCost = newNeighborGCost + heuristic.estimate(neighbor);
+				if (openList.contains(neighbor)) {
+					openList.decreaseKey(neighbor, fCost);
+					decreaseKeys++;
+				} else {
+					if (state.reached(neighbor)) {
+						reopened++;
+					}
+					openList.push(neighbor, fCost);
+					pushes++;
+				}
+				state.reach(neighbor, newNeighborGCost, e);
+			}
 		}
 
-		return reconstructPath(roads, parentMap, endPoint);
-	}
+		final SearchStats stats = workspace.stats;
+		if (stats != null) {
+			stats.settled = pops;
+			stats.pops = pops;
+			stats.pushes = pushes;
+			stats.decreaseKeys = decreaseKeys;
+			stats.reopened = reopened;
+			stats.relaxed = relaxed;
+		}
 
-	private static List<Road> doIDAStarAlg(List<Road> roads, Map<RoadPoint, List<RoadPoint>> roadsMap,
-			RoadPoint startPoint, RoadPoint endPoint) {
-		return null;
+		return reconstructPath(workspace, startPoint, endPoint);
 	}
 }
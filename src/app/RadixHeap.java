@@ -0,0 +1,108 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Monotone priority queue of vertex ids with non-negative long keys. Keys
+ * pushed must be at least the last key popped, which holds for Dijkstra. An
+ * entry lives in the bucket numbered by the highest bit in which its key
+ * differs from the last popped key, so each entry moves to a lower bucket at
+ * most 64 times and operations cost O(1) amortized, with no comparisons
+ * between entries except when a bucket is emptied.
+ *
+ * There is no decrease-key: push the vertex again with the smaller key and
+ * skip the stale entry when it comes out.
+ */
+final class RadixHeap {
+	private static final int BUCKETS = 65;
+
+	private final int[][] vertices = new int[BUCKETS][];
+	private final long[][] keys = new long[BUCKETS][];
+	private final int[] sizes = new int[BUCKETS];
+	private int size;
+	private long last;
+
+	RadixHeap() {
+		for (int b = 0; b < BUCKETS; b++) {
+			vertices[b] = new int[8];
+			keys[b] = new long[8];
+		}
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return key of the vertex popped last
+	 */
+	long lastKey() {
+		return last;
+	}
+
+	/**
+	 * Remove every entry and allow any keys again
+	 */
+	void clear() {
+		Arrays.fill(sizes, 0);
+		size = 0;
+		last = 0;
+	}
+
+	void push(int v, long key) {
+		if (key < last) {
+			throw new IllegalArgumentException("Key " + key + " is below the last popped key " + last);
+		}
+
+		add(bucketOf(key), v, key);
+		size++;
+	}
+
+	/**
+	 * Remove and return a vertex with the smallest key; {@link #lastKey()} is
+	 * then its key
+	 */
+	int pop() {
+		if (sizes[0] == 0) {
+			// Find the first non-empty bucket and its minimum key
+			int b = 1;
+			while (sizes[b] == 0) {
+				b++;
+			}
+
+			final int[] bucketVertices = vertices[b];
+			final long[] bucketKeys = keys[b];
+			final int bucketSize = sizes[b];
+			long min = bucketKeys[0];
+			for (int i = 1; i < bucketSize; i++) {
+				min = Math.min(min, bucketKeys[i]);
+			}
+
+			// Relative to the new minimum every entry of the bucket lands in a lower
+			// one. Moving them can't touch bucket b's arrays.
+			last = min;
+			sizes[b] = 0;
+			for (int i = 0; i < bucketSize; i++) {
+				add(bucketOf(bucketKeys[i]), bucketVertices[i], bucketKeys[i]);
+			}
+		}
+
+		size--;
+		return vertices[0][--sizes[0]];
+	}
+
+	private int bucketOf(long key) {
+		return 64 - Long.numberOfLeadingZeros(key ^ last);
+	}
+
+	private void add(int b, int v, long key) {
+		int n = sizes[b];
+		if (n == vertices[b].length) {
+			vertices[b] = Arrays.copyOf(vertices[b], n * 2);
+			keys[b] = Arrays.copyOf(keys[b], n * 2);
+		}
+		vertices[b][n] = v;
+		keys[b][n] = key;
+		sizes[b] = n + 1;
+	}
+}
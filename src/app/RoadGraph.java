@@ -0,0 +1,282 @@
+package app;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import models.Road;
+import models.RoadPoint;
+
+/**
+ * Directed road graph stored in compressed sparse row (CSR) form. Vertices are
+ * dense ints in [0, getVertexCount()), the outgoing edges of vertex v are the
+ * edge ids in [edgeStart(v), edgeEnd(v)), the incoming ones are inEdge(i) for
+ * i in [inEdgeStart(v), inEdgeEnd(v)). Edge weights live in primitive arrays
+ * and coordinates in an off-heap {@link Coordinates} store, so that searches
+ * never touch RoadPoint objects.
+ *
+ * Instances are built by {@link RoadParser#buildRoadGraph(List)} and are
+ * immutable once built, so any number of threads can search one graph at
+ * once. Per-search state lives in a {@link SearchWorkspace} instead. Changes
+ * such as road closures produce a new graph, see {@link RoadNetwork}.
+ */
+public class RoadGraph {
+	/**
+	 * Fixed-point scale of {@link #edgeLength(int)}: lengths are edge weights
+	 * times this, rounded
+	 */
+	public static final int LENGTH_SCALE = 1 << 10;
+
+	private final List<Road> roads;
+	private final VertexLookup vertexLookup;
+
+	// Vertex coordinates, indexed by vertex id
+	private final Coordinates coordinates;
+
+	// offsets[v]..offsets[v + 1] is the range of v's outgoing edges
+	private final int[] offsets;
+
+	// Per-edge data, indexed by edge id. Within a vertex's range the targets are
+	// sorted, which lets findEdge binary search them.
+	private final int[] sources;
+	private final int[] targets;
+	private final float[] weights;
+
+	// Edge weights in fixed point, for searches with integer keys
+	private final int[] lengths;
+
+	// Index into roads of the road each edge was built from
+	private final int[] edgeRoads;
+
+	// Reverse adjacency: inEdges[inOffsets[v]..inOffsets[v + 1]] are the ids of
+	// the edges that end at v
+	private final int[] inOffsets;
+	private final int[] inEdges;
+
+	// Computed on first use
+	private volatile Connectivity connectivity;
+
+	/**
+	 * @param vertexLookup
+	 *            coordinate lookup table for xs and ys, or null to build one. The
+	 *            coordinates are copied, xs and ys aren't kept.
+	 */
+	RoadGraph(List<Road> roads, int[] xs, int[] ys, int[] offsets, int[] targets, float[] weights,
+			int[] edgeRoads, VertexLookup vertexLookup) {
+		this.roads = Collections.unmodifiableList(roads);
+		this.coordinates = new Coordinates(xs, ys);
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+		this.lengths = toLengths(weights);
+		this.edgeRoads = edgeRoads;
+		this.vertexLookup = vertexLookup != null ? vertexLookup : new VertexLookup(coordinates);
+
+		this.sources = new int[targets.length];
+		for (int v = 0; v < xs.length; v++) {
+			Arrays.fill(sources, offsets[v], offsets[v + 1], v);
+		}
+
+		// Counting sort the edges by target to get the reverse adjacency
+		this.inOffsets = new int[xs.length + 1];
+		for (int e = 0; e < targets.length; e++) {
+			inOffsets[targets[e] + 1]++;
+		}
+		for (int v = 0; v < xs.length; v++) {
+			inOffsets[v + 1] += inOffsets[v];
+		}
+
+		final int[] fill = Arrays.copyOf(inOffsets, xs.length);
+		this.inEdges = new int[targets.length];
+		for (int e = 0; e < targets.length; e++) {
+			inEdges[fill[targets[e]]++] = e;
+		}
+	}
+
+	/**
+	 * Copy of base with different edge weights, sharing everything else
+	 *
+	 * @param weights
+	 *            new weight of each of base's edges
+	 */
+	RoadGraph(RoadGraph base, float[] weights) {
+		this.roads = base.roads;
+		this.coordinates = base.coordinates;
+		this.offsets = base.offsets;
+		this.targets = base.targets;
+		this.weights = weights;
+		this.lengths = toLengths(weights);
+		this.edgeRoads = base.edgeRoads;
+		this.vertexLookup = base.vertexLookup;
+		this.sources = base.sources;
+		this.inOffsets = base.inOffsets;
+		this.inEdges = base.inEdges;
+
+		// Weights don't change what can reach what
+		this.connectivity = base.connectivity;
+	}
+
+	public List<Road> getRoads() {
+		return roads;
+	}
+
+	public int getVertexCount() {
+		return coordinates.size();
+	}
+
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * Look up the vertex id of a road point
+	 *
+	 * @param p
+	 * @return the vertex id, or -1 if p is null or not an endpoint of any road
+	 */
+	public int getVertex(RoadPoint p) {
+		if (p == null)
+			return -1;
+
+		return getVertex(p.getX(), p.getY());
+	}
+
+	/**
+	 * @return id of the vertex at (x, y), or -1 if there is none
+	 */
+	public int getVertex(int x, int y) {
+		return vertexLookup.find(coordinates, x, y);
+	}
+
+	public RoadPoint getRoadPoint(int v) {
+		return new RoadPoint(coordinates.getX(v), coordinates.getY(v));
+	}
+
+	public int getX(int v) {
+		return coordinates.getX(v);
+	}
+
+	public int getY(int v) {
+		return coordinates.getY(v);
+	}
+
+	public Coordinates getCoordinates() {
+		return coordinates;
+	}
+
+	public int edgeStart(int v) {
+		return offsets[v];
+	}
+
+	public int edgeEnd(int v) {
+		return offsets[v + 1];
+	}
+
+	public int inEdgeStart(int v) {
+		return inOffsets[v];
+	}
+
+	public int inEdgeEnd(int v) {
+		return inOffsets[v + 1];
+	}
+
+	/**
+	 * @param i
+	 *            index in [inEdgeStart(v), inEdgeEnd(v))
+	 * @return id of an edge ending at v
+	 */
+	public int inEdge(int i) {
+		return inEdges[i];
+	}
+
+	public int edgeSource(int e) {
+		return sources[e];
+	}
+
+	public int edgeTarget(int e) {
+		return targets[e];
+	}
+
+	public float edgeWeight(int e) {
+		return weights[e];
+	}
+
+	/**
+	 * @return weight of edge e in units of 1 / {@link #LENGTH_SCALE}, rounded to
+	 *         the nearest unit
+	 */
+	public int edgeLength(int e) {
+		return lengths[e];
+	}
+
+	public Road edgeRoad(int e) {
+		return roads.get(edgeRoads[e]);
+	}
+
+	int edgeRoadIndex(int e) {
+		return edgeRoads[e];
+	}
+
+	/**
+	 * @return the strongly connected components of the graph, computed the first
+	 *         time they're asked for
+	 */
+	public Connectivity getConnectivity() {
+		Connectivity c = connectivity;
+		if (c == null) {
+			// Racing threads may each compute it, but they get equal results
+			c = new Connectivity(this);
+			connectivity = c;
+		}
+
+		return c;
+	}
+
+	VertexLookup getVertexLookup() {
+		return vertexLookup;
+	}
+
+	/**
+	 * Find the edge from u to v
+	 *
+	 * @param u
+	 * @param v
+	 * @return the edge id, or -1 if there is no edge from u to v
+	 */
+	public int findEdge(int u, int v) {
+		int lo = offsets[u];
+		int hi = offsets[u + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int t = targets[mid];
+			if (t < v) {
+				lo = mid + 1;
+			} else if (t > v) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return straight line distance between vertices u and v
+	 */
+	public double distance(int u, int v) {
+		double dx = coordinates.getX(u) - coordinates.getX(v);
+		double dy = coordinates.getY(u) - coordinates.getY(v);
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static int[] toLengths(float[] weights) {
+		int[] lengths = new int[weights.length];
+		for (int e = 0; e < weights.length; e++) {
+			// Clamp absurd weights rather than wrap around
+			lengths[e] = (int) Math.min(Integer.MAX_VALUE, Math.round((double) weights[e] * LENGTH_SCALE));
+		}
+
+		return lengths;
+	}
+}
@@ -0,0 +1,580 @@
+package app;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import models.Road;
+import models.Road.RoadType;
+import models.RoadPoint;
+
+/**
+ * The current version of a road graph, changed by atomic updates such as road
+ * closures. Graphs are immutable: an update builds a new graph from the
+ * current one and swaps it in, so searches already running on the old graph
+ * are never blocked or disturbed, and readers always see either all of an
+ * update or none of it.
+ *
+ * An update doesn't reparse or rehash anything. Weight changes copy only the
+ * weight array; other changes rebuild the edge arrays in O(V + R + E) and keep
+ * vertex ids stable. Road changes give the same edges as building the graph
+ * afresh from the open roads: the edges between two end points are derived
+ * again from every open road between them, so closing one of two parallel
+ * roads keeps the edge the other one provides. A removed edge stays removed
+ * through later changes to its end points, until a road that provided it is
+ * opened, reversed or given a new road type.
+ */
+public class RoadNetwork {
+	/**
+	 * Told about every update after it is applied, e.g. to invalidate whatever
+	 * was computed for the old graph
+	 */
+	public interface ChangeListener {
+		void graphChanged(GraphChange change);
+	}
+
+	private volatile RoadGraph graph;
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	// Roads closed by updates, replaced by every update that changes it
+	private volatile BitSet closedRoads = new BitSet();
+
+	// Edges removed from the roads that provided them, replaced by every update
+	// that changes it
+	private volatile Set<RoadEdge> removedRoadEdges = new HashSet<>();
+
+	// Vertex ids of each road's end points, lower id first, filled in on the
+	// first road change. No change moves a road's end points, only which way
+	// round they are. Only used while applying an update.
+	private final IntList roadLows = new IntList();
+	private final IntList roadHighs = new IntList();
+
+	public RoadNetwork(RoadGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * @return the current graph
+	 */
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @param road
+	 *            index in the road list
+	 * @return true if the road is closed
+	 */
+	public boolean isClosed(int road) {
+		return closedRoads.get(road);
+	}
+
+	public void addChangeListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeChangeListener(ChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Start a batch of changes to the current graph. Edge ids passed to the
+	 * update are ids in the current graph; nothing changes until
+	 * {@link Update#apply()}.
+	 *
+	 * @return the update
+	 */
+	public Update update() {
+		return new Update(graph);
+	}
+
+	/**
+	 * A batch of changes applied together
+	 */
+	public class Update {
+		private final RoadGraph base;
+
+		// Roads of the new graph, copied on first change
+		private List<Road> roads;
+
+		// Roads whose edges must be recomputed, and whether each one is closed;
+		// null if it keeps its open or closed state
+		private final Map<Integer, Boolean> touchedRoads = new LinkedHashMap<>();
+
+		private final Map<Integer, Float> newWeights = new HashMap<>();
+		private boolean[] removedEdges;
+
+		private boolean applied;
+
+		Update(RoadGraph base) {
+			this.base = base;
+			this.roads = base.getRoads();
+		}
+
+		/**
+		 * Change the weight of an edge, e.g. for congestion
+		 *
+		 * @param edge
+		 * @param weight
+		 *            finite and not negative
+		 * @return this
+		 */
+		public Update setWeight(int edge, float weight) {
+			checkEdge(edge);
+			if (!(weight >= 0) || Float.isInfinite(weight)) {
+				throw new IllegalArgumentException("Bad edge weight: " + weight);
+			}
+
+			newWeights.put(edge, weight);
+			return this;
+		}
+
+		/**
+		 * Remove a single edge, e.g. to close one direction of a two-way road. The
+		 * edge stays removed when other roads between its end points change,
+		 * including roads that provide it too.
+		 *
+		 * @param edge
+		 * @return this
+		 */
+		public Update removeEdge(int edge) {
+			checkEdge(edge);
+			if (removedEdges == null) {
+				removedEdges = new boolean[base.getEdgeCount()];
+			}
+
+			removedEdges[edge] = true;
+			return this;
+		}
+
+		/**
+		 * Remove every edge built from a road, except those that another open road
+		 * between the same end points also provides. The road stays in the road
+		 * list.
+		 *
+		 * @param road
+		 *            index in the road list
+		 * @return this
+		 */
+		public Update closeRoad(int road) {
+			checkRoad(road);
+			touchedRoads.put(road, true);
+			return this;
+		}
+
+		/**
+		 * Give a road back the edges its road type calls for, including edges
+		 * removed with {@link #removeEdge(int)}
+		 *
+		 * @param road
+		 *            index in the road list
+		 * @return this
+		 */
+		public Update openRoad(int road) {
+			checkRoad(road);
+			touchedRoads.put(road, false);
+			return this;
+		}
+
+		/**
+		 * Make a road one-way from its start to its end point, or two-way
+		 *
+		 * @param road
+		 *            index in the road list
+		 * @param type
+		 * @return this
+		 */
+		public Update setRoadType(int road, RoadType type) {
+			checkRoad(road);
+			Road r = roads.get(road);
+			replaceRoad(road, new Road(type, r.getStartPoint().getPoint(), r.getEndPoint().getPoint()));
+			return this;
+		}
+
+		/**
+		 * Swap a road's start and end point, turning a one-way road around
+		 *
+		 * @param road
+		 *            index in the road list
+		 * @return this
+		 */
+		public Update reverseRoad(int road) {
+			checkRoad(road);
+			Road r = roads.get(road);
+			replaceRoad(road, new Road(r.getRoadType(), r.getEndPoint().getPoint(), r.getStartPoint().getPoint()));
+			return this;
+		}
+
+		/**
+		 * Add a road. Its end points become new vertices if they aren't vertices
+		 * already.
+		 *
+		 * @param road
+		 * @return index of the road in the road list
+		 */
+		public int addRoad(Road road) {
+			copyRoads();
+			roads.add(road);
+			touchedRoads.put(roads.size() - 1, false);
+			return roads.size() - 1;
+		}
+
+		/**
+		 * Build the new graph, make it the network's current graph and tell the
+		 * listeners
+		 *
+		 * @return the change
+		 * @throws IllegalStateException
+		 *             if another update was applied since this one was started
+		 */
+		public GraphChange apply() {
+			synchronized (RoadNetwork.this) {
+				if (applied) {
+					throw new IllegalStateException("Update was already applied");
+				}
+				if (graph != base) {
+					throw new IllegalStateException("Graph changed since the update was started");
+				}
+
+				GraphChange change = removedEdges == null && touchedRoads.isEmpty() ? reweigh() : rebuild();
+				graph = change.getNewGraph();
+				applied = true;
+
+				for (ChangeListener listener : listeners) {
+					listener.graphChanged(change);
+				}
+
+				return change;
+			}
+		}
+
+		// Only weights changed: share the structure and keep the edge ids
+		private GraphChange reweigh() {
+			float[] weights = new float[base.getEdgeCount()];
+			boolean costIncreaseOnly = true;
+			for (int e = 0; e < weights.length; e++) {
+				weights[e] = weightOf(e);
+				costIncreaseOnly &= weights[e] >= base.edgeWeight(e);
+			}
+
+			return new GraphChange(base, new RoadGraph(base, weights), null, costIncreaseOnly);
+		}
+
+		private GraphChange rebuild() {
+			final int oldVertices = base.getVertexCount();
+			final int oldEdges = base.getEdgeCount();
+
+			// Vertex ids of the road end points not looked up yet: every road's the
+			// first time, then only added roads'. New points get new ids after the
+			// old vertices.
+			IntList newXs = new IntList();
+			IntList newYs = new IntList();
+			Map<Point, Integer> newVertices = new HashMap<>();
+			while (roadLows.size() > base.getRoads().size()) {
+				// Left over from an update that failed
+				roadLows.removeLast();
+				roadHighs.removeLast();
+			}
+			findRoadEnds(roadLows.size(), newVertices, newXs, newYs, oldVertices);
+
+			final BitSet closed = (BitSet) closedRoads.clone();
+			final Set<RoadEdge> removed = new HashSet<>(removedRoadEdges);
+			final boolean[] touchedVertices = new boolean[oldVertices + newXs.size()];
+			final Set<Long> touchedPairs = new HashSet<>();
+			final BitSet restored = new BitSet();
+			for (Map.Entry<Integer, Boolean> entry : touchedRoads.entrySet()) {
+				int road = entry.getKey();
+				if (entry.getValue() != null) {
+					closed.set(road, entry.getValue());
+				}
+				if (entry.getValue() != Boolean.TRUE) {
+					// Opened or replaced, so it gets all of its edges back
+					restored.set(road);
+				}
+				touchedVertices[roadLows.get(road)] = true;
+				touchedVertices[roadHighs.get(road)] = true;
+				touchedPairs.add(pairOf(roadLows.get(road), roadHighs.get(road)));
+			}
+			if (!restored.isEmpty()) {
+				Iterator<RoadEdge> it = removed.iterator();
+				while (it.hasNext()) {
+					if (restored.get(it.next().road)) {
+						it.remove();
+					}
+				}
+			}
+
+			// Edges removed by this update, whichever roads provide them. Their end
+			// points count as touched, so the roads providing them are found below.
+			final Set<Long> removedPairs = new HashSet<>();
+			for (int e = 0; removedEdges != null && e < oldEdges; e++) {
+				if (removedEdges[e]) {
+					int u = base.edgeSource(e);
+					int v = base.edgeTarget(e);
+					removedPairs.add((long) u << 32 | v);
+					touchedVertices[u] = true;
+					touchedVertices[v] = true;
+					touchedPairs.add(pairOf(u, v));
+				}
+			}
+
+			// Edges between the touched roads' end points, packed as (source << 32 |
+			// target), derived from every open road between them and mapped to the
+			// lowest such road, as buildRoadGraph would
+			final Map<Long, Integer> wanted = new HashMap<>();
+			for (int road = 0; road < roads.size(); road++) {
+				int low = roadLows.get(road);
+				int high = roadHighs.get(road);
+				if (!touchedVertices[low] || !touchedVertices[high] || closed.get(road)
+						|| !touchedPairs.contains(pairOf(low, high))) {
+					continue;
+				}
+
+				Road r = roads.get(road);
+				long u = vertexOf(r.getStartPoint(), newVertices, newXs, newYs, oldVertices);
+				long v = vertexOf(r.getEndPoint(), newVertices, newXs, newYs, oldVertices);
+				want(wanted, removedPairs, removed, u << 32 | v, road);
+				if (r.getRoadType() == RoadType.TWO_WAY) {
+					want(wanted, removedPairs, removed, v << 32 | u, road);
+				}
+			}
+
+			// Candidate edges: the old ones that stay, then the new ones
+			final int capacity = oldEdges + wanted.size();
+			final int[] sources = new int[capacity];
+			final int[] targets = new int[capacity];
+			final float[] weights = new float[capacity];
+			final int[] edgeRoads = new int[capacity];
+			final int[] origins = new int[capacity];
+			int count = 0;
+			for (int e = 0; e < oldEdges; e++) {
+				if (removedEdges != null && removedEdges[e]) {
+					continue;
+				}
+
+				// An old edge between touched end points stays only if some road
+				// still wants it
+				final int u = base.edgeSource(e);
+				final int v = base.edgeTarget(e);
+				int road = base.edgeRoadIndex(e);
+				if (touchedVertices[u] && touchedVertices[v] && touchedPairs.contains(pairOf(u, v))) {
+					Integer wantedBy = wanted.remove((long) u << 32 | v);
+					if (wantedBy == null) {
+						continue;
+					}
+					road = wantedBy;
+				}
+
+				sources[count] = u;
+				targets[count] = v;
+				weights[count] = weightOf(e);
+				edgeRoads[count] = road;
+				origins[count] = e;
+				count++;
+			}
+			for (Map.Entry<Long, Integer> entry : wanted.entrySet()) {
+				sources[count] = (int) (entry.getKey() >>> 32);
+				targets[count] = (int) (long) entry.getKey();
+				edgeRoads[count] = entry.getValue();
+				origins[count] = -1;
+				count++;
+			}
+
+			final int numVertices = oldVertices + newXs.size();
+			final int[] xs = Arrays.copyOf(base.getCoordinates().xs(), numVertices);
+			final int[] ys = Arrays.copyOf(base.getCoordinates().ys(), numVertices);
+			for (int i = 0; i < newXs.size(); i++) {
+				xs[oldVertices + i] = newXs.get(i);
+				ys[oldVertices + i] = newYs.get(i);
+			}
+
+			// Counting sort the candidates by source
+			final int[] offsets = new int[numVertices + 1];
+			for (int k = 0; k < count; k++) {
+				offsets[sources[k] + 1]++;
+			}
+			for (int v = 0; v < numVertices; v++) {
+				offsets[v + 1] += offsets[v];
+			}
+			final int[] fill = Arrays.copyOf(offsets, numVertices);
+			final long[] packed = new long[count];
+			for (int k = 0; k < count; k++) {
+				packed[fill[sources[k]]++] = (long) targets[k] << 32 | k;
+			}
+
+			// Sort each vertex's edges by target and drop duplicates and self loops
+			// as buildRoadGraph does. Old edges come first among duplicates, so they
+			// keep their place.
+			final int[] edgeMap = new int[oldEdges];
+			Arrays.fill(edgeMap, -1);
+			final int[] newTargets = new int[count];
+			final float[] newWeights = new float[count];
+			final int[] newEdgeRoads = new int[count];
+			boolean costIncreaseOnly = true;
+			int numEdges = 0;
+			int segStart = 0;
+			for (int v = 0; v < numVertices; v++) {
+				int segEnd = offsets[v + 1];
+				Arrays.sort(packed, segStart, segEnd);
+				offsets[v] = numEdges;
+				for (int i = segStart; i < segEnd; i++) {
+					int t = (int) (packed[i] >>> 32);
+					int k = (int) packed[i];
+					if (t == v || numEdges != offsets[v] && newTargets[numEdges - 1] == t) {
+						continue;
+					}
+
+					int origin = origins[k];
+					float weight;
+					if (origin >= 0) {
+						weight = weights[k];
+						edgeMap[origin] = numEdges;
+						costIncreaseOnly &= weight >= base.edgeWeight(origin);
+					} else {
+						weight = (float) Point.distance(xs[v], ys[v], xs[t], ys[t]);
+						costIncreaseOnly = false;
+					}
+
+					newTargets[numEdges] = t;
+					newWeights[numEdges] = weight;
+					newEdgeRoads[numEdges] = edgeRoads[k];
+					numEdges++;
+				}
+				segStart = segEnd;
+			}
+			offsets[numVertices] = numEdges;
+
+			RoadGraph updated = new RoadGraph(roads, xs, ys, offsets, Arrays.copyOf(newTargets, numEdges),
+					Arrays.copyOf(newWeights, numEdges), Arrays.copyOf(newEdgeRoads, numEdges),
+					newXs.size() == 0 ? base.getVertexLookup() : null);
+			closedRoads = closed;
+			removedRoadEdges = removed;
+			return new GraphChange(base, updated, edgeMap, costIncreaseOnly);
+		}
+
+		/**
+		 * Look up the end points of roads from index first on, giving new points
+		 * new vertex ids
+		 */
+		private void findRoadEnds(int first, Map<Point, Integer> newVertices, IntList newXs, IntList newYs,
+				int oldVertices) {
+			for (int road = first; road < roads.size(); road++) {
+				Road r = roads.get(road);
+				int u = vertexOf(r.getStartPoint(), newVertices, newXs, newYs, oldVertices);
+				int v = vertexOf(r.getEndPoint(), newVertices, newXs, newYs, oldVertices);
+				roadLows.add(Math.min(u, v));
+				roadHighs.add(Math.max(u, v));
+			}
+		}
+
+		private float weightOf(int edge) {
+			Float weight = newWeights.get(edge);
+			return weight != null ? weight : base.edgeWeight(edge);
+		}
+
+		private void replaceRoad(int road, Road replacement) {
+			copyRoads();
+			roads.set(road, replacement);
+			if (!touchedRoads.containsKey(road)) {
+				touchedRoads.put(road, null);
+			}
+		}
+
+		private void copyRoads() {
+			if (roads == base.getRoads()) {
+				roads = new ArrayList<>(roads);
+			}
+		}
+
+		private void checkEdge(int edge) {
+			if (edge < 0 || edge >= base.getEdgeCount()) {
+				throw new IndexOutOfBoundsException("No edge " + edge);
+			}
+		}
+
+		private void checkRoad(int road) {
+			if (road < 0 || road >= roads.size()) {
+				throw new IndexOutOfBoundsException("No road " + road);
+			}
+		}
+
+		private int vertexOf(RoadPoint p, Map<Point, Integer> newVertices, IntList newXs, IntList newYs,
+				int oldVertices) {
+			Point point = p.getPoint();
+			int v = base.getVertex(point.x, point.y);
+			if (v >= 0) {
+				return v;
+			}
+
+			Integer id = newVertices.get(point);
+			if (id == null) {
+				id = oldVertices + newXs.size();
+				newVertices.put(new Point(point), id);
+				newXs.add(point.x);
+				newYs.add(point.y);
+			}
+
+			return id;
+		}
+	}
+
+	// Map pair to road in wanted unless a lower road already has it or the edge
+	// was removed from road, now or by an earlier update
+	private static void want(Map<Long, Integer> wanted, Set<Long> removedPairs, Set<RoadEdge> removed, long pair,
+			int road) {
+		RoadEdge edge = new RoadEdge(pair, road);
+		if (removedPairs.contains(pair)) {
+			removed.add(edge);
+		}
+		if (removed.contains(edge)) {
+			return;
+		}
+
+		Integer other = wanted.get(pair);
+		if (other == null || other > road) {
+			wanted.put(pair, road);
+		}
+	}
+
+	// Key of the end points u and v, whichever way round
+	private static long pairOf(int u, int v) {
+		return (long) Math.min(u, v) << 32 | Math.max(u, v);
+	}
+
+	/**
+	 * A directed edge, packed as (source << 32 | target), of one road
+	 */
+	private static final class RoadEdge {
+		final long pair;
+		final int road;
+
+		RoadEdge(long pair, int road) {
+			this.pair = pair;
+			this.road = road;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(pair) * 31 + road;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof RoadEdge)) {
+				return false;
+			}
+
+			RoadEdge other = (RoadEdge) o;
+			return pair == other.pair && road == other.road;
+		}
+	}
+}
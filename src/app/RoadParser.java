@@ -1,23 +1,28 @@
 package app;
 
-import java.awt.Point;
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import models.Road;
-import models.Road.RoadType;
-import models.RoadPoint;
 
 public class RoadParser {
 
+	// Parallel parses don't split the file into chunks smaller than this
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+	// Largest region of the file mapped at once
+	private static final long MAX_CHUNK_SIZE = 1 << 30;
+
 	/**
 	 * Get a list of Road objects from the file. Each non-empty line in the file
 	 * should be of the form:
@@ -32,75 +37,306 @@ public class RoadParser {
 	 * @return
 	 * @throws FileNotFoundException
 	 * @throws IOException
+	 *             if the file can't be read or a line is malformed
 	 */
 	public static final List<Road> parseRoads(File inFile) throws FileNotFoundException, IOException {
-		final List<Road> roads = new ArrayList<>();
-		try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] tokens = line.split(" ");
-				Road.RoadType roadType = null;
-				Point src;
-				Point dst;
-
-				// Parse road type
-				int roadTypeN = Integer.parseInt(tokens[0]);
-				if (roadTypeN == 1) {
-					roadType = Road.RoadType.ONE_WAY;
-				} else if (roadTypeN == 2) {
-					roadType = Road.RoadType.TWO_WAY;
-				} else {
-					throw new RuntimeException("Unsupported roadtype: " + roadTypeN);
+		return parseRoadTable(inFile, 1).toRoads();
+	}
+
+	/**
+	 * Parse the road file described in {@link #parseRoads(File)} into primitive
+	 * arrays. The file is memory-mapped and scanned byte by byte, without
+	 * creating a String or any other object per line.
+	 * 
+	 * @param inFile
+	 *            file containing road entries
+	 * @param parallelism
+	 *            number of chunks to split the file into at line boundaries and
+	 *            parse in parallel; 1 parses on the calling thread
+	 * @return the parsed roads, in file order
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 *             if the file can't be read or a line is malformed, in which case
+	 *             the message names the first bad line
+	 */
+	public static final RoadTable parseRoadTable(File inFile, int parallelism)
+			throws FileNotFoundException, IOException {
+		try (FileInputStream in = new FileInputStream(inFile)) {
+			final FileChannel channel = in.getChannel();
+			final long[] bounds = chunkBounds(channel, Math.max(1, parallelism));
+			final int numChunks = bounds.length - 1;
+
+			final ChunkParser[] chunks = new ChunkParser[numChunks];
+			for (int c = 0; c < numChunks; c++) {
+				chunks[c] = new ChunkParser(
+						channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]));
+			}
+
+			if (numChunks == 1) {
+				chunks[0].run();
+			} else {
+				List<ForkJoinTask<?>> tasks = new ArrayList<>(numChunks);
+				for (ChunkParser chunk : chunks) {
+					tasks.add(ForkJoinPool.commonPool().submit(chunk));
+				}
+				for (ForkJoinTask<?> task : tasks) {
+					task.join();
 				}
+			}
 
-				// Parse src point
-				src = new Point(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+			// Report the first bad line in the file, numbered across chunks
+			int linesBefore = 0;
+			int size = 0;
+			for (ChunkParser chunk : chunks) {
+				if (chunk.error != null) {
+					throw new IOException(inFile + ":" + (linesBefore + chunk.line) + ": " + chunk.error);
+				}
+				linesBefore += chunk.line - 1;
+				size += chunk.size;
+			}
 
-				// Parse dst point
-				dst = new Point(Integer.parseInt(tokens[3]), Integer.parseInt(tokens[4]));
+			// Concatenate the chunks' columns
+			final boolean[] oneWay = new boolean[size];
+			final int[] startXs = new int[size];
+			final int[] startYs = new int[size];
+			final int[] endXs = new int[size];
+			final int[] endYs = new int[size];
+			int offset = 0;
+			for (ChunkParser chunk : chunks) {
+				System.arraycopy(chunk.oneWay, 0, oneWay, offset, chunk.size);
+				System.arraycopy(chunk.startXs, 0, startXs, offset, chunk.size);
+				System.arraycopy(chunk.startYs, 0, startYs, offset, chunk.size);
+				System.arraycopy(chunk.endXs, 0, endXs, offset, chunk.size);
+				System.arraycopy(chunk.endYs, 0, endYs, offset, chunk.size);
+				offset += chunk.size;
+			}
 
-				// Construct road
-				roads.add(new Road(roadType, src, dst));
+			return new RoadTable(size, oneWay, startXs, startYs, endXs, endYs);
+		}
+	}
+
+	/**
+	 * Split the file into about parallelism chunks that each end just after a
+	 * newline (or at the end of the file)
+	 * 
+	 * @return chunk boundaries: chunk c is [bounds[c], bounds[c + 1])
+	 */
+	private static long[] chunkBounds(FileChannel channel, int parallelism) throws IOException {
+		final long fileSize = channel.size();
+		final long chunkSize = Math.min(MAX_CHUNK_SIZE,
+				parallelism == 1 ? fileSize : Math.max(MIN_CHUNK_SIZE, fileSize / parallelism + 1));
+
+		final List<Long> bounds = new ArrayList<>();
+		final ByteBuffer window = ByteBuffer.allocate(4096);
+		long start = 0;
+		bounds.add(start);
+		while (start < fileSize) {
+			long end = start + chunkSize;
+
+			// Move the cut forward to just past the next newline
+			scan: while (end < fileSize) {
+				window.clear();
+				int read = channel.read(window, end);
+				for (int i = 0; i < read; i++) {
+					if (window.get(i) == '\n') {
+						end += i + 1;
+						break scan;
+					}
+				}
+				end += Math.max(read, 0);
 			}
+
+			start = Math.min(end, fileSize);
+			bounds.add(start);
+		}
+
+		if (bounds.size() == 1) {
+			// Empty file
+			bounds.add(0L);
+		}
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
 		}
 
-		return roads;
+		return result;
 	}
 
-	public static final Map<RoadPoint, List<RoadPoint>> buildRoadPointGraph(List<Road> roads) {
-		final Map<RoadPoint, List<RoadPoint>> map = new HashMap<>();
+	/**
+	 * Parses one mapped chunk of a road file into growable primitive columns.
+	 * Parse errors are recorded rather than thrown so the caller can number the
+	 * line relative to the whole file.
+	 */
+	private static class ChunkParser implements Runnable {
+		private final MappedByteBuffer buf;
+		private final int limit;
+		private int pos;
+		private int lineStart;
+
+		// Line number within the chunk, starting at 1
+		int line = 1;
+		String error;
+
+		int size;
+		boolean[] oneWay;
+		int[] startXs;
+		int[] startYs;
+		int[] endXs;
+		int[] endYs;
 
-		for (Road r : roads) {
-			RoadPoint start = r.getStartPoint();
-			RoadPoint end = r.getEndPoint();
-			List<RoadPoint> ls;
+		ChunkParser(MappedByteBuffer buf) {
+			this.buf = buf;
+			this.limit = buf.limit();
 
-			// Add from start side
-			ls = map.get(start);
-			if (ls == null) {
-				ls = new ArrayList<RoadPoint>();
-				map.put(start, ls);
+			// Guess about 20 bytes per line
+			int capacity = limit / 20 + 16;
+			oneWay = new boolean[capacity];
+			startXs = new int[capacity];
+			startYs = new int[capacity];
+			endXs = new int[capacity];
+			endYs = new int[capacity];
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (pos < limit) {
+					skipBlanks();
+
+					// Skip empty lines
+					if (pos == limit) {
+						break;
+					}
+					if (buf.get(pos) == '\n') {
+						nextLine();
+						continue;
+					}
+
+					int roadType = readInt();
+					if (roadType != 1 && roadType != 2) {
+						throw new IllegalArgumentException("Unsupported roadtype: " + roadType);
+					}
+					int startX = readInt();
+					int startY = readInt();
+					int endX = readInt();
+					int endY = readInt();
+
+					skipBlanks();
+					if (pos < limit) {
+						if (buf.get(pos) != '\n') {
+							throw new IllegalArgumentException("Unexpected data at column " + column());
+						}
+						nextLine();
+					}
+
+					add(roadType == 1, startX, startY, endX, endY);
+				}
+			} catch (IllegalArgumentException e) {
+				error = e.getMessage();
 			}
+		}
 
-			if (!ls.contains(end)) {
-				ls.add(end);
+		private void add(boolean isOneWay, int startX, int startY, int endX, int endY) {
+			if (size == oneWay.length) {
+				int capacity = size * 2;
+				oneWay = Arrays.copyOf(oneWay, capacity);
+				startXs = Arrays.copyOf(startXs, capacity);
+				startYs = Arrays.copyOf(startYs, capacity);
+				endXs = Arrays.copyOf(endXs, capacity);
+				endYs = Arrays.copyOf(endYs, capacity);
 			}
 
-			if (r.getRoadType() == RoadType.TWO_WAY) {
+			oneWay[size] = isOneWay;
+			startXs[size] = startX;
+			startYs[size] = startY;
+			endXs[size] = endX;
+			endYs[size] = endY;
+			size++;
+		}
 
-				// Add from end side
-				ls = map.get(end);
-				if (ls == null) {
-					ls = new ArrayList<RoadPoint>();
-					map.put(end, ls);
+		private int readInt() {
+			skipBlanks();
+			if (pos == limit || buf.get(pos) == '\n') {
+				throw new IllegalArgumentException("Expected 5 fields, found fewer");
+			}
+
+			boolean negative = buf.get(pos) == '-';
+			if (negative) {
+				pos++;
+			}
+
+			final int numberStart = pos;
+			long value = 0;
+			while (pos < limit) {
+				int digit = buf.get(pos) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
 				}
 
-				if (!ls.contains(start)) {
-					ls.add(start);
+				value = value * 10 + digit;
+				if (value > (long) Integer.MAX_VALUE + 1) {
+					throw new IllegalArgumentException("Number out of range at column " + column());
 				}
+				pos++;
+			}
+
+			if (pos == numberStart || (pos < limit && !isBlank(buf.get(pos)) && buf.get(pos) != '\n')) {
+				throw new IllegalArgumentException("Invalid number at column " + column());
 			}
+
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Number out of range at column " + column());
+			}
+
+			return (int) value;
 		}
-		
-		return map;
+
+		private void skipBlanks() {
+			while (pos < limit && isBlank(buf.get(pos))) {
+				pos++;
+			}
+		}
+
+		private static boolean isBlank(byte b) {
+			return b == ' ' || b == '\t' || b == '\r';
+		}
+
+		private void nextLine() {
+			pos++;
+			line++;
+			lineStart = pos;
+		}
+
+		private int column() {
+			return pos - lineStart + 1;
+		}
+	}
+
+	/**
+	 * Build a CSR graph from the list of roads. Every distinct road endpoint
+	 * becomes a vertex, numbered in order of first appearance; one-way roads
+	 * contribute a single edge from start to end and two-way roads contribute an
+	 * edge in each direction. Duplicate edges and self loops are dropped.
+	 * 
+	 * @param roads
+	 * @return the road graph
+	 */
+	public static final RoadGraph buildRoadGraph(List<Road> roads) {
+		return GraphBuilder.build(roads, RoadTable.fromRoads(roads), 1);
+	}
+
+	/**
+	 * Build the graph described in {@link #buildRoadGraph(List)} from parsed
+	 * roads, in parallel. The result is the same whatever the parallelism.
+	 * 
+	 * @param table
+	 * @param parallelism
+	 *            number of threads to use; 1 builds on the calling thread
+	 * @return the road graph, whose roads are {@link RoadTable#asRoadList()}
+	 */
+	public static final RoadGraph buildRoadGraph(RoadTable table, int parallelism) {
+		return GraphBuilder.build(table.asRoadList(), table, parallelism);
 	}
 }
@@ -0,0 +1,113 @@
+package app;
+
+import java.awt.Point;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Road;
+
+/**
+ * Parsed road file held column-wise in primitive arrays, one entry per road
+ */
+public class RoadTable {
+	private final int size;
+	private final boolean[] oneWay;
+	private final int[] startXs;
+	private final int[] startYs;
+	private final int[] endXs;
+	private final int[] endYs;
+
+	RoadTable(int size, boolean[] oneWay, int[] startXs, int[] startYs, int[] endXs, int[] endYs) {
+		this.size = size;
+		this.oneWay = oneWay;
+		this.startXs = startXs;
+		this.startYs = startYs;
+		this.endXs = endXs;
+		this.endYs = endYs;
+	}
+
+	/**
+	 * @return the coordinates of roads
+	 */
+	static RoadTable fromRoads(List<Road> roads) {
+		final int size = roads.size();
+		final boolean[] oneWay = new boolean[size];
+		final int[] startXs = new int[size];
+		final int[] startYs = new int[size];
+		final int[] endXs = new int[size];
+		final int[] endYs = new int[size];
+		for (int i = 0; i < size; i++) {
+			Road r = roads.get(i);
+			oneWay[i] = r.getRoadType() == Road.RoadType.ONE_WAY;
+			startXs[i] = r.getStartPoint().getX();
+			startYs[i] = r.getStartPoint().getY();
+			endXs[i] = r.getEndPoint().getX();
+			endYs[i] = r.getEndPoint().getY();
+		}
+
+		return new RoadTable(size, oneWay, startXs, startYs, endXs, endYs);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Road.RoadType getRoadType(int i) {
+		return oneWay[i] ? Road.RoadType.ONE_WAY : Road.RoadType.TWO_WAY;
+	}
+
+	public int getStartX(int i) {
+		return startXs[i];
+	}
+
+	public int getStartY(int i) {
+		return startYs[i];
+	}
+
+	public int getEndX(int i) {
+		return endXs[i];
+	}
+
+	public int getEndY(int i) {
+		return endYs[i];
+	}
+
+	/**
+	 * @return a read-only list view that creates each entry's Road object the
+	 *         first time it is asked for and keeps it
+	 */
+	public List<Road> asRoadList() {
+		final Road[] created = new Road[size];
+		return new AbstractList<Road>() {
+
+			@Override
+			public Road get(int i) {
+				Road r = created[i];
+				if (r == null) {
+					r = new Road(getRoadType(i), new Point(startXs[i], startYs[i]), new Point(endXs[i], endYs[i]));
+					created[i] = r;
+				}
+
+				return r;
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return a Road object for each entry, in file order
+	 */
+	public List<Road> toRoads() {
+		List<Road> roads = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			roads.add(new Road(getRoadType(i), new Point(startXs[i], startYs[i]), new Point(endXs[i], endYs[i])));
+		}
+
+		return roads;
+	}
+}
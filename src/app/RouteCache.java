@@ -0,0 +1,355 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import app.Pathfinder.AlgorithmType;
+import models.Road;
+import models.RoadPoint;
+
+/**
+ * Bounded cache of optimal paths in front of {@link Pathfinder}, keyed by
+ * (start vertex, end vertex, algorithm). Paths are stored as edge id arrays.
+ *
+ * The cache is split into independently locked segments, each evicting its
+ * least recently used entries once the total weight of its entries exceeds its
+ * share of the capacity. Searches run outside the locks, with a workspace per
+ * thread, so concurrent misses don't wait on each other; two threads missing
+ * on the same key at once may both search.
+ *
+ * Results always come from the straight line heuristic, so they are the same
+ * paths an uncached call with a null heuristic returns.
+ *
+ * Registered with a {@link RoadNetwork}, the cache follows the network's
+ * updates. Changes that only remove edges or raise weights drop just the
+ * paths using a changed edge; any other change drops everything.
+ */
+public class RouteCache implements RoadNetwork.ChangeListener {
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Weight of a cached path, counted against the capacity
+	 */
+	public interface Weigher {
+		long weigh(int[] edgePath);
+
+		/**
+		 * Every path weighs 1, so the capacity is a number of entries
+		 */
+		static Weigher entries() {
+			return new Weigher() {
+
+				@Override
+				public long weigh(int[] edgePath) {
+					return 1;
+				}
+			};
+		}
+
+		/**
+		 * A path weighs its edge count plus one, so the capacity roughly bounds
+		 * memory use whatever the path lengths
+		 */
+		static Weigher edges() {
+			return new Weigher() {
+
+				@Override
+				public long weigh(int[] edgePath) {
+					return edgePath.length + 1;
+				}
+			};
+		}
+	}
+
+	private volatile RoadGraph graph;
+	private final Weigher weigher;
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<SearchWorkspace>() {
+
+		@Override
+		protected SearchWorkspace initialValue() {
+			return new SearchWorkspace(graph);
+		}
+	};
+
+	private SearchWorkspace workspaceFor(RoadGraph graph) {
+		SearchWorkspace workspace = workspaces.get();
+		if (workspace.getGraph() != graph) {
+			workspace = new SearchWorkspace(graph);
+			workspaces.set(workspace);
+		}
+
+		return workspace;
+	}
+
+	/**
+	 * @param graph
+	 * @param capacity
+	 *            maximum total weight of the cached paths
+	 * @param weigher
+	 *            how much each path counts against capacity
+	 */
+	public RouteCache(RoadGraph graph, long capacity, Weigher weigher) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		this.graph = graph;
+		this.weigher = weigher;
+
+		// Shares sum to the capacity exactly: the first capacity % count segments
+		// take one more, and a capacity below SEGMENTS gets one segment per unit
+		final int count = (int) Math.min(SEGMENTS, capacity);
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+		}
+	}
+
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Cached version of
+	 * {@link Pathfinder#getOptimalPath(RoadGraph, Heuristic, RoadPoint, RoadPoint, AlgorithmType)}
+	 * with a null heuristic
+	 */
+	public List<Road> getOptimalPath(RoadPoint startPoint, RoadPoint endPoint, AlgorithmType type) {
+		final RoadGraph current = graph;
+		final int start = current.getVertex(startPoint);
+		final int end = current.getVertex(endPoint);
+		if (start < 0 || end < 0) {
+			return new ArrayList<>();
+		}
+
+		return Pathfinder.toRoads(current, getOptimalEdgePath(current, start, end, type));
+	}
+
+	/**
+	 * @param start
+	 * @param end
+	 * @param type
+	 * @return edge ids in the current graph of the optimal path, empty if there
+	 *         is none. The array is shared with the cache and must not be
+	 *         modified.
+	 */
+	public int[] getOptimalEdgePath(int start, int end, AlgorithmType type) {
+		return getOptimalEdgePath(graph, start, end, type);
+	}
+
+	private int[] getOptimalEdgePath(RoadGraph current, int start, int end, AlgorithmType type) {
+		final Key key = new Key(start, end, type);
+		final Segment segment = segmentFor(key);
+
+		int[] edgePath = segment.get(key, current);
+		if (edgePath != null) {
+			hits.increment();
+			return edgePath;
+		}
+
+		misses.increment();
+		edgePath = Pathfinder.getOptimalEdgePath(workspaceFor(current), null, start, end, type);
+		segment.put(key, edgePath, weigher.weigh(edgePath), current);
+		return edgePath;
+	}
+
+	/**
+	 * Move to the changed graph, keeping the cached paths that are still optimal
+	 */
+	@Override
+	public void graphChanged(GraphChange change) {
+		final boolean related = change.getOldGraph() == graph;
+		graph = change.getNewGraph();
+
+		for (Segment segment : segments) {
+			if (related && change.isCostIncreaseOnly()) {
+				segment.update(change);
+			} else {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Drop every cached path
+	 */
+	public void invalidateAll() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return fraction of lookups that were hits, 0 if there were none
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return number of cached paths
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+
+		return size;
+	}
+
+	/**
+	 * @return path in the new graph's edge ids, or null if it uses a changed
+	 *         edge
+	 */
+	private static int[] remap(GraphChange change, int[] edgePath) {
+		int[] remapped = edgePath;
+		for (int i = 0; i < edgePath.length; i++) {
+			if (change.isChanged(edgePath[i])) {
+				return null;
+			}
+
+			int e = change.newEdge(edgePath[i]);
+			if (e != edgePath[i] && remapped == edgePath) {
+				remapped = edgePath.clone();
+			}
+			remapped[i] = e;
+		}
+
+		return remapped;
+	}
+
+	private Segment segmentFor(Key key) {
+		return segments[Math.floorMod(key.hashCode(), segments.length)];
+	}
+
+	private static final class Key {
+		final int start;
+		final int end;
+		final AlgorithmType type;
+
+		Key(int start, int end, AlgorithmType type) {
+			this.start = start;
+			this.end = end;
+			this.type = type;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = VertexLookup.hash(start, end) + type.ordinal() * 0x9E3779B1;
+			return h ^ (h >>> 16);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) o;
+			return start == other.start && end == other.end && type == other.type;
+		}
+	}
+
+	private static final class Entry {
+		final RoadGraph graph;
+		final int[] edgePath;
+		final long weight;
+
+		Entry(RoadGraph graph, int[] edgePath, long weight) {
+			this.graph = graph;
+			this.edgePath = edgePath;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * LRU map of one share of the keys, guarded by its own monitor
+	 */
+	private final class Segment {
+		// Access ordered, so iteration starts at the least recently used entry
+		private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+		private final long capacity;
+		private long weight;
+
+		Segment(long capacity) {
+			this.capacity = capacity;
+		}
+
+		synchronized int[] get(Key key, RoadGraph current) {
+			Entry entry = entries.get(key);
+			return entry != null && entry.graph == current ? entry.edgePath : null;
+		}
+
+		synchronized void put(Key key, int[] edgePath, long pathWeight, RoadGraph current) {
+			// A path that could never fit would just flush the segment, and one
+			// searched on a graph that has since changed is stale
+			if (pathWeight > capacity || current != graph) {
+				return;
+			}
+
+			Entry old = entries.put(key, new Entry(current, edgePath, pathWeight));
+			if (old != null) {
+				weight -= old.weight;
+			}
+			weight += pathWeight;
+
+			Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+			while (weight > capacity) {
+				weight -= it.next().getValue().weight;
+				it.remove();
+				evictions.increment();
+			}
+		}
+
+		// Drop the paths through changed edges and renumber the rest in place,
+		// which keeps the LRU order
+		synchronized void update(GraphChange change) {
+			Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Key, Entry> mapEntry = it.next();
+				Entry entry = mapEntry.getValue();
+				int[] edgePath = remap(change, entry.edgePath);
+				if (edgePath == null) {
+					weight -= entry.weight;
+					it.remove();
+				} else {
+					mapEntry.setValue(new Entry(change.getNewGraph(), edgePath, entry.weight));
+				}
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			weight = 0;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+}
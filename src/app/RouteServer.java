@@ -0,0 +1,457 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import app.Pathfinder.AlgorithmType;
+
+/**
+ * Headless routing server. Loads the graph once and answers requests over a
+ * line protocol on localhost, one request per line and one response line per
+ * request, in order. Coordinates are world coordinates, as in the road file.
+ *
+ * <pre>
+ * ROUTE sx sy ex ey     OK distance n x1 y1 ... xn yn   (the path's vertices)
+ * DISTANCE sx sy ex ey  OK distance
+ * SNAP x y              OK x y                          (nearest vertex)
+ * STATS                 OK name{count=... p50=...} ...  (latencies in ns, and
+ *                                                        cache hits if cached)
+ * QUIT
+ * </pre>
+ *
+ * ROUTE and DISTANCE snap their end points to the nearest vertex first and
+ * answer NONE if there is no path. Malformed requests get ERR and a message.
+ *
+ * Every connection gets its own thread. Clients may send many requests without
+ * waiting for responses; all requests already received are handed to the
+ * routing workers before the connection waits on the first one. Each worker
+ * takes all the queued route queries it can, up to MAX_BATCH, and answers them
+ * in one go with its own search workspace, or through a shared
+ * {@link RouteCache} if the server was given one.
+ */
+public class RouteServer {
+	public static final int DEFAULT_PORT = 8765;
+
+	// Most queries a worker takes from the queue at once
+	private static final int MAX_BATCH = 64;
+
+	private final RoadGraph graph;
+	private final AlgorithmType type;
+	private final SpatialIndex index;
+	private final RouteCache cache;
+
+	private final BlockingQueue<Query> queries = new LinkedBlockingQueue<>();
+	private final List<Thread> workers = new ArrayList<>();
+	private final ExecutorService connections;
+	private volatile ServerSocket serverSocket;
+
+	// Time from reading a request to having its response ready, per command
+	private final Histogram routeLatency = new Histogram();
+	private final Histogram distanceLatency = new Histogram();
+	private final Histogram snapLatency = new Histogram();
+
+	// Queries answered per batch
+	private final Histogram batchSizes = new Histogram();
+
+	/**
+	 * @param graph
+	 * @param type
+	 *            which search algorithm to use
+	 * @param numWorkers
+	 *            number of routing threads
+	 */
+	public RouteServer(RoadGraph graph, AlgorithmType type, int numWorkers) {
+		this(graph, type, numWorkers, null);
+	}
+
+	/**
+	 * @param graph
+	 * @param type
+	 *            which search algorithm to use
+	 * @param numWorkers
+	 *            number of routing threads
+	 * @param cache
+	 *            cache on graph to answer route queries through, or null to
+	 *            search every query
+	 */
+	public RouteServer(RoadGraph graph, AlgorithmType type, int numWorkers, RouteCache cache) {
+		if (cache != null && cache.getGraph() != graph) {
+			throw new IllegalArgumentException("Cache is on a different graph");
+		}
+
+		this.graph = graph;
+		this.type = type;
+		this.cache = cache;
+		this.index = new SpatialIndex(graph);
+		this.connections = Executors.newCachedThreadPool(daemonThreads("route-connection-"));
+
+		ThreadFactory workerThreads = daemonThreads("route-worker-");
+		for (int i = 0; i < numWorkers; i++) {
+			workers.add(workerThreads.newThread(new Worker()));
+		}
+	}
+
+	/**
+	 * Usage: RouteServer [road file] [port] [algorithm] [cached paths]
+	 */
+	public static void main(String[] args) throws IOException {
+		final File roadFile = new File(args.length > 0 ? args[0] : "test.txt");
+		final int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		final AlgorithmType type = args.length > 2 ? AlgorithmType.valueOf(args[2])
+				: AlgorithmType.BIDIRECTIONAL_ASTAR;
+
+		final File snapshotFile = new File(roadFile.getPath() + ".graph");
+		RoadGraph graph = GraphSnapshot.loadOrBuild(roadFile, snapshotFile, new GraphSnapshot.FallbackHandler() {
+
+			@Override
+			public void readFailed(IOException e) {
+				System.out.println("Rebuilding graph snapshot: " + e.getMessage());
+			}
+
+			@Override
+			public void writeFailed(IOException e) {
+				System.out.println("Could not write graph snapshot " + snapshotFile + ": " + e.getMessage());
+			}
+		});
+		final int cachedPaths = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		RouteCache cache = cachedPaths > 0 ? new RouteCache(graph, cachedPaths, RouteCache.Weigher.entries()) : null;
+		RouteServer server = new RouteServer(graph, type, Runtime.getRuntime().availableProcessors(), cache);
+		System.out.println("Serving " + graph.getVertexCount() + " vertices with " + type + " on localhost:" + port);
+		server.serve(port);
+	}
+
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	public Histogram getRouteLatency() {
+		return routeLatency;
+	}
+
+	public Histogram getDistanceLatency() {
+		return distanceLatency;
+	}
+
+	public Histogram getSnapLatency() {
+		return snapLatency;
+	}
+
+	public Histogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * @return the cache route queries go through, or null
+	 */
+	public RouteCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Accept connections on localhost until {@link #close()} is called
+	 *
+	 * @param port
+	 *            port to listen on, 0 for any free port
+	 * @throws IOException
+	 *             if the port can't be bound
+	 */
+	public void serve(int port) throws IOException {
+		start(port);
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				connections.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				});
+			}
+		} catch (SocketException e) {
+			// Closed
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Bind the port and start the routing workers without accepting connections
+	 * yet, e.g. to learn the port before calling {@link #serve(int)} from another
+	 * thread
+	 *
+	 * @return the bound port
+	 */
+	public synchronized int start(int port) throws IOException {
+		if (serverSocket == null) {
+			serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+			for (Thread worker : workers) {
+				worker.start();
+			}
+		}
+
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stop accepting connections and stop the routing workers
+	 */
+	public synchronized void close() {
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+			// Closing anyway
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		connections.shutdownNow();
+	}
+
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+			final ArrayDeque<Response> pending = new ArrayDeque<>();
+			final StringBuilder line = new StringBuilder();
+			boolean open = true;
+			while (open) {
+				// Take every request already received, so that pipelined route
+				// queries reach the workers together
+				do {
+					String request = in.readLine();
+					if (request == null || request.trim().equalsIgnoreCase("QUIT")) {
+						open = false;
+						break;
+					}
+					if (!request.trim().isEmpty()) {
+						pending.add(submit(request));
+					}
+				} while (in.ready());
+
+				while (!pending.isEmpty()) {
+					line.setLength(0);
+					pending.poll().write(line);
+					out.append(line).append('\n');
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			// Client went away
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Parse request and start answering it
+	 */
+	private Response submit(String request) {
+		final long received = System.nanoTime();
+		final String[] words = request.trim().split("\\s+");
+		final String command = words[0].toUpperCase();
+		try {
+			switch (command) {
+			case "ROUTE":
+			case "DISTANCE": {
+				checkArguments(words, 4);
+				int start = snap(words[1], words[2]);
+				int end = snap(words[3], words[4]);
+				Query query = new Query(start, end);
+				queries.add(query);
+				return new RouteResponse(query, command.equals("ROUTE"), received);
+			}
+			case "SNAP": {
+				checkArguments(words, 2);
+				int v = snap(words[1], words[2]);
+				snapLatency.record(System.nanoTime() - received);
+				return new TextResponse("OK " + graph.getX(v) + " " + graph.getY(v));
+			}
+			case "STATS": {
+				checkArguments(words, 0);
+				String stats = "OK route{" + routeLatency + "} distance{" + distanceLatency + "} snap{" + snapLatency
+						+ "} batch{" + batchSizes + "}";
+				if (cache != null) {
+					stats += " cache{hits=" + cache.getHitCount() + " misses=" + cache.getMissCount() + " evictions="
+							+ cache.getEvictionCount() + "}";
+				}
+				return new TextResponse(stats);
+			}
+			default:
+				return new TextResponse("ERR unknown command " + words[0]);
+			}
+		} catch (IllegalArgumentException e) {
+			return new TextResponse("ERR " + e.getMessage());
+		}
+	}
+
+	private static void checkArguments(String[] words, int expected) {
+		if (words.length != expected + 1) {
+			throw new IllegalArgumentException(words[0] + " takes " + expected + " arguments");
+		}
+	}
+
+	/**
+	 * @return the vertex nearest to (x, y)
+	 * @throws IllegalArgumentException
+	 *             if x or y isn't a number or the graph is empty
+	 */
+	private int snap(String x, String y) {
+		int v = index.nearest(Double.parseDouble(x), Double.parseDouble(y), Double.POSITIVE_INFINITY);
+		if (v < 0) {
+			throw new IllegalArgumentException("no vertices");
+		}
+
+		return v;
+	}
+
+	/**
+	 * A route query waiting for a worker
+	 */
+	private static final class Query {
+		final int start;
+		final int end;
+		final CompletableFuture<int[]> edgePath = new CompletableFuture<>();
+
+		Query(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Answers route queries in batches
+	 */
+	private class Worker implements Runnable {
+		private final SearchWorkspace workspace = new SearchWorkspace(graph);
+		private final List<Query> batch = new ArrayList<>(MAX_BATCH);
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					batch.add(queries.take());
+					queries.drainTo(batch, MAX_BATCH - 1);
+					batchSizes.record(batch.size());
+
+					for (Query query : batch) {
+						try {
+							query.edgePath.complete(cache != null ? cache.getOptimalEdgePath(query.start, query.end, type)
+									: Pathfinder.getOptimalEdgePath(workspace, null, query.start, query.end, type));
+						} catch (RuntimeException e) {
+							query.edgePath.completeExceptionally(e);
+						}
+					}
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				// Server closed
+			}
+		}
+	}
+
+	/**
+	 * Response line of one request, written when it is the connection's turn
+	 */
+	private interface Response {
+		void write(StringBuilder line) throws InterruptedException;
+	}
+
+	private static final class TextResponse implements Response {
+		private final String text;
+
+		TextResponse(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public void write(StringBuilder line) {
+			line.append(text);
+		}
+	}
+
+	private final class RouteResponse implements Response {
+		private final Query query;
+		private final boolean withPath;
+		private final long received;
+
+		RouteResponse(Query query, boolean withPath, long received) {
+			this.query = query;
+			this.withPath = withPath;
+			this.received = received;
+		}
+
+		// Written straight from the edge ids, without a Road list
+		@Override
+		public void write(StringBuilder line) throws InterruptedException {
+			final int[] edgePath;
+			try {
+				edgePath = query.edgePath.get();
+			} catch (ExecutionException e) {
+				line.append("ERR ").append(e.getCause());
+				return;
+			}
+
+			if (edgePath.length == 0 && query.start != query.end) {
+				line.append("NONE");
+			} else {
+				double distance = 0;
+				for (int e : edgePath) {
+					distance += graph.edgeWeight(e);
+				}
+				line.append("OK ").append(distance);
+
+				if (withPath) {
+					line.append(' ').append(edgePath.length + 1);
+					appendVertex(line, query.start);
+					for (int e : edgePath) {
+						appendVertex(line, graph.edgeTarget(e));
+					}
+				}
+			}
+
+			(withPath ? routeLatency : distanceLatency).record(System.nanoTime() - received);
+		}
+
+		private void appendVertex(StringBuilder line, int v) {
+			line.append(' ').append(graph.getX(v)).append(' ').append(graph.getY(v));
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
@@ -0,0 +1,66 @@
+package app;
+
+import app.Pathfinder.AlgorithmType;
+
+/**
+ * Aggregated {@link SearchStats} per algorithm: histograms of query latency and
+ * of the work each query did. Safe to record into from any number of threads.
+ */
+public class SearchMetrics {
+	private final Histogram[] latencyNanos;
+	private final Histogram[] settled;
+	private final Histogram[] relaxed;
+
+	public SearchMetrics() {
+		int n = AlgorithmType.values().length;
+		latencyNanos = new Histogram[n];
+		settled = new Histogram[n];
+		relaxed = new Histogram[n];
+		for (int i = 0; i < n; i++) {
+			latencyNanos[i] = new Histogram();
+			settled[i] = new Histogram();
+			relaxed[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Add one finished search
+	 *
+	 * @param stats
+	 */
+	public void record(SearchStats stats) {
+		int i = stats.getAlgorithm().ordinal();
+		latencyNanos[i].record(stats.getTotalNanos());
+		settled[i].record(stats.getSettled());
+		relaxed[i].record(stats.getRelaxed());
+	}
+
+	/**
+	 * @return total time per query, in nanoseconds
+	 */
+	public Histogram getLatencyNanos(AlgorithmType type) {
+		return latencyNanos[type.ordinal()];
+	}
+
+	/**
+	 * @return vertices settled per query
+	 */
+	public Histogram getSettled(AlgorithmType type) {
+		return settled[type.ordinal()];
+	}
+
+	/**
+	 * @return edges relaxed per query
+	 */
+	public Histogram getRelaxed(AlgorithmType type) {
+		return relaxed[type.ordinal()];
+	}
+
+	public void reset() {
+		for (int i = 0; i < latencyNanos.length; i++) {
+			latencyNanos[i].reset();
+			settled[i].reset();
+			relaxed[i].reset();
+		}
+	}
+}
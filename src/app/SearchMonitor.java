@@ -0,0 +1,26 @@
+package app;
+
+/**
+ * Watches a running search, e.g. from a UI: it can cancel the search and is
+ * told how far the search has got. Searches only call back every
+ * {@link #INTERVAL} expanded vertices, so watching costs next to nothing.
+ *
+ * Callbacks run on the searching thread.
+ */
+public interface SearchMonitor {
+	int INTERVAL = 1024;
+
+	/**
+	 * @return true to stop the search, which then throws
+	 *         {@link java.util.concurrent.CancellationException}
+	 */
+	boolean isCancelled();
+
+	/**
+	 * @param expanded
+	 *            number of vertices expanded so far
+	 * @param frontierVertex
+	 *            vertex on the search frontier being expanded now
+	 */
+	void progress(int expanded, int frontierVertex);
+}
@@ -0,0 +1,69 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Per-vertex distance and parent edge arrays plus a queue for one search
+ * direction. Entries are tagged with a generation stamp, so {@link #reset()}
+ * is O(queued vertices) instead of O(vertices) and the arrays are never
+ * cleared between searches.
+ */
+final class SearchState {
+	final IndexedHeap queue;
+
+	private final double[] dist;
+	private final int[] parentEdge;
+
+	// dist[v] and parentEdge[v] are valid only if stamps[v] == generation
+	private final int[] stamps;
+	private int generation;
+
+	SearchState(int vertexCount) {
+		queue = new IndexedHeap(vertexCount);
+		dist = new double[vertexCount];
+		parentEdge = new int[vertexCount];
+		stamps = new int[vertexCount];
+	}
+
+	/**
+	 * Forget every vertex reached by the previous search
+	 */
+	void reset() {
+		queue.clear();
+		generation++;
+
+		// On wrap-around stale stamps could collide with new generations
+		if (generation == 0) {
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+	boolean reached(int v) {
+		return stamps[v] == generation;
+	}
+
+	/**
+	 * @return distance v was reached with, infinite if it wasn't reached
+	 */
+	double dist(int v) {
+		return stamps[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return edge v was reached by, -1 for the search root or if v wasn't
+	 *         reached
+	 */
+	int parentEdge(int v) {
+		return stamps[v] == generation ? parentEdge[v] : -1;
+	}
+
+	/**
+	 * Record that v was reached with distance d by edge e
+	 */
+	void reach(int v, double d, int e) {
+		stamps[v] = generation;
+		dist[v] = d;
+		parentEdge[v] = e;
+	}
+}
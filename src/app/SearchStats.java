@@ -0,0 +1,128 @@
+package app;
+
+import app.Pathfinder.AlgorithmType;
+
+/**
+ * Counters and phase timings of one search. Set a SearchStats on a
+ * {@link SearchWorkspace} and every search run with the workspace overwrites
+ * it. Instances are reused, so collecting stats allocates nothing per query;
+ * without one the searches only skip a null check.
+ */
+public class SearchStats {
+	AlgorithmType algorithm;
+
+	// Vertices taken off the queue (or entered, for IDA*)
+	int settled;
+
+	// Edges looked at while expanding settled vertices
+	int relaxed;
+
+	int pushes;
+	int pops;
+	int decreaseKeys;
+
+	// Vertices pushed again after being settled, which only happens with an
+	// inconsistent heuristic
+	int reopened;
+
+	// IDA* threshold iterations
+	int iterations;
+
+	int pathLength;
+
+	long heuristicNanos;
+	long searchNanos;
+	long reconstructNanos;
+
+	/**
+	 * Zero everything before a new search
+	 */
+	void reset(AlgorithmType algorithm) {
+		this.algorithm = algorithm;
+		settled = 0;
+		relaxed = 0;
+		pushes = 0;
+		pops = 0;
+		decreaseKeys = 0;
+		reopened = 0;
+		iterations = 0;
+		pathLength = 0;
+		heuristicNanos = 0;
+		searchNanos = 0;
+		reconstructNanos = 0;
+	}
+
+	public AlgorithmType getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getSettled() {
+		return settled;
+	}
+
+	public int getRelaxed() {
+		return relaxed;
+	}
+
+	public int getPushes() {
+		return pushes;
+	}
+
+	public int getPops() {
+		return pops;
+	}
+
+	public int getDecreaseKeys() {
+		return decreaseKeys;
+	}
+
+	public int getReopened() {
+		return reopened;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return number of edges in the path found, 0 if there is none
+	 */
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	/**
+	 * @return time spent creating and preparing the heuristic
+	 */
+	public long getHeuristicNanos() {
+		return heuristicNanos;
+	}
+
+	/**
+	 * @return time spent searching, without heuristic setup and path
+	 *         reconstruction
+	 */
+	public long getSearchNanos() {
+		return searchNanos;
+	}
+
+	/**
+	 * @return time spent turning the search result into the path. IDA* keeps its
+	 *         path as it searches, so this is 0 for it.
+	 */
+	public long getReconstructNanos() {
+		return reconstructNanos;
+	}
+
+	public long getTotalNanos() {
+		return heuristicNanos + searchNanos + reconstructNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchStats [algorithm=" + algorithm + ", settled=" + settled + ", relaxed=" + relaxed + ", pushes="
+				+ pushes + ", pops=" + pops + ", decreaseKeys=" + decreaseKeys + ", reopened=" + reopened
+				+ ", iterations=" + iterations + ", pathLength=" + pathLength + ", heuristicNanos=" + heuristicNanos
+				+ ", searchNanos=" + searchNanos + ", reconstructNanos=" + reconstructNanos + "]";
+	}
+}
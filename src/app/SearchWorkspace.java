@@ -0,0 +1,123 @@
+package app;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reusable scratch state for running Pathfinder searches on one graph. Passing
+ * the same workspace to many queries avoids allocating per-vertex arrays for
+ * each one, and clearing it between queries only costs as much as the vertices
+ * the previous query touched.
+ *
+ * A workspace is not thread safe; give each thread its own. The graph itself
+ * is immutable and can be shared.
+ */
+public class SearchWorkspace {
+	private final RoadGraph graph;
+
+	final SearchState state;
+
+	// BFS queue. Vertices are enqueued at most once, so a flat array is enough.
+	final int[] bfsQueue;
+
+	final MemoizedHeuristic memoizedHeuristic;
+
+	// Watches the searches, or null
+	SearchMonitor monitor;
+
+	// Receives the stats of each search, or null
+	SearchStats stats;
+
+	// Engines with their own state, created on first use
+	private BidirectionalSearch bidirectionalSearch;
+	private IDAStarSearch idaStarSearch;
+	private RadixHeap radixHeap;
+
+	public SearchWorkspace(RoadGraph graph) {
+		this.graph = graph;
+		this.state = new SearchState(graph.getVertexCount());
+		this.bfsQueue = new int[graph.getVertexCount()];
+		this.memoizedHeuristic = new MemoizedHeuristic(graph.getVertexCount());
+	}
+
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Watch the searches run with this workspace from now on
+	 *
+	 * @param monitor
+	 *            the monitor, or null to stop watching
+	 */
+	public void setMonitor(SearchMonitor monitor) {
+		this.monitor = monitor;
+		if (bidirectionalSearch != null) {
+			bidirectionalSearch.setMonitor(monitor);
+			bidirectionalSearch.setStats(stats);
+		}
+		if (idaStarSearch != null) {
+			idaStarSearch.setMonitor(monitor);
+			idaStarSearch.setStats(stats);
+		}
+	}
+
+	/**
+	 * Collect the stats of each search run with this workspace from now on into
+	 * stats, overwriting them every time
+	 *
+	 * @param stats
+	 *            the stats, or null to stop collecting
+	 */
+	public void setStats(SearchStats stats) {
+		this.stats = stats;
+		if (bidirectionalSearch != null) {
+			bidirectionalSearch.setStats(stats);
+		}
+		if (idaStarSearch != null) {
+			idaStarSearch.setStats(stats);
+		}
+	}
+
+	/**
+	 * Stop if the search was cancelled, else report progress
+	 *
+	 * @throws CancellationException
+	 *             if monitor says the search was cancelled
+	 */
+	static void checkpoint(SearchMonitor monitor, int expanded, int frontierVertex) {
+		if (monitor.isCancelled()) {
+			throw new CancellationException("Search cancelled");
+		}
+
+		monitor.progress(expanded, frontierVertex);
+	}
+
+	BidirectionalSearch bidirectionalSearch() {
+		if (bidirectionalSearch == null) {
+			bidirectionalSearch = new BidirectionalSearch(graph);
+			bidirectionalSearch.setMonitor(monitor);
+			bidirectionalSearch.setStats(stats);
+		}
+
+		return bidirectionalSearch;
+	}
+
+	RadixHeap radixHeap() {
+		if (radixHeap == null) {
+			radixHeap = new RadixHeap();
+		}
+
+		return radixHeap;
+	}
+
+	IDAStarSearch idaStarSearch() {
+		if (idaStarSearch == null) {
+			idaStarSearch = new IDAStarSearch(graph, IDAStarSearch.ThresholdGrowth.geometric(Pathfinder.IDASTAR_GROWTH),
+					Math.min(graph.getVertexCount(), Pathfinder.IDASTAR_TABLE_SIZE));
+			idaStarSearch.setMonitor(monitor);
+			idaStarSearch.setStats(stats);
+		}
+
+		return idaStarSearch;
+	}
+}
@@ -0,0 +1,172 @@
+package app;
+
+/**
+ * Shortest paths from one source to every vertex (or from every vertex to one
+ * target), computed with a single Dijkstra search. Distances are floats, like
+ * the graph's edge weights, and the tree is stored as the edge each vertex was
+ * reached by.
+ */
+public class ShortestPathTree {
+	private final RoadGraph graph;
+	private final int root;
+	private final boolean reverse;
+
+	// dist[v] is infinite and parentEdge[v] is -1 for unreachable vertices
+	private final float[] dist;
+	private final int[] parentEdge;
+
+	private ShortestPathTree(RoadGraph graph, int root, boolean reverse, float[] dist, int[] parentEdge) {
+		this.graph = graph;
+		this.root = root;
+		this.reverse = reverse;
+		this.dist = dist;
+		this.parentEdge = parentEdge;
+	}
+
+	/**
+	 * @param graph
+	 * @param source
+	 * @return shortest paths from source to every vertex
+	 */
+	public static ShortestPathTree fromSource(RoadGraph graph, int source) {
+		return compute(graph, source, false);
+	}
+
+	/**
+	 * @param graph
+	 * @param target
+	 * @return shortest paths from every vertex to target, following one-way
+	 *         roads the right way
+	 */
+	public static ShortestPathTree toTarget(RoadGraph graph, int target) {
+		return compute(graph, target, true);
+	}
+
+	private static ShortestPathTree compute(RoadGraph graph, int root, boolean reverse) {
+		final int n = graph.getVertexCount();
+		final SearchState state = new SearchState(n);
+		run(graph, state, root, reverse, null, 0);
+
+		final float[] dist = new float[n];
+		final int[] parentEdge = new int[n];
+		for (int v = 0; v < n; v++) {
+			dist[v] = (float) state.dist(v);
+			parentEdge[v] = state.parentEdge(v);
+		}
+
+		return new ShortestPathTree(graph, root, reverse, dist, parentEdge);
+	}
+
+	/**
+	 * Dijkstra from root over outgoing edges, or over incoming edges if reverse.
+	 * Stops early once stopCount distinct vertices marked in stopAt are settled;
+	 * with stopAt null it runs until every reachable vertex is settled. The
+	 * results are left in state.
+	 */
+	static void run(RoadGraph graph, SearchState state, int root, boolean reverse, boolean[] stopAt,
+			int stopCount) {
+		final IndexedHeap queue = state.queue;
+		state.reset();
+		state.reach(root, 0, -1);
+		queue.push(root, 0);
+
+		int settledTargets = 0;
+		while (!queue.isEmpty()) {
+			int cur = queue.pop();
+			if (stopAt != null && stopAt[cur] && ++settledTargets == stopCount) {
+				break;
+			}
+
+			int begin = reverse ? graph.inEdgeStart(cur) : graph.edgeStart(cur);
+			int end = reverse ? graph.inEdgeEnd(cur) : graph.edgeEnd(cur);
+			for (int i = begin; i < end; i++) {
+				int e = reverse ? graph.inEdge(i) : i;
+				int neighbor = reverse ? graph.edgeSource(e) : graph.edgeTarget(e);
+				double d = state.dist(cur) + graph.edgeWeight(e);
+				if (d < state.dist(neighbor)) {
+					state.reach(neighbor, d, e);
+					queue.pushOrDecrease(neighbor, d);
+				}
+			}
+		}
+	}
+
+	public RoadGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return the source, or the target for a tree from {@link #toTarget}
+	 */
+	public int getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return true if this is a tree of paths to the root rather than from it
+	 */
+	public boolean isReverse() {
+		return reverse;
+	}
+
+	/**
+	 * @return shortest path length between the root and v, infinite if there is
+	 *         no path
+	 */
+	public float distance(int v) {
+		return dist[v];
+	}
+
+	/**
+	 * @return the distance of every vertex, indexed by vertex id
+	 */
+	public float[] getDistances() {
+		return dist.clone();
+	}
+
+	/**
+	 * @return the edge on the tree path at v: the last edge of the path to v, or
+	 *         for a reverse tree the first edge of the path from v. -1 for the
+	 *         root and unreachable vertices.
+	 */
+	public int parentEdge(int v) {
+		return parentEdge[v];
+	}
+
+	public boolean isReachable(int v) {
+		return dist[v] != Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @param v
+	 * @return edge ids of the shortest path between the root and v, in travel
+	 *         order, empty if there is none
+	 */
+	public int[] path(int v) {
+		if (!isReachable(v)) {
+			return new int[0];
+		}
+
+		IntList edges = new IntList();
+		for (int cur = v; cur != root; cur = next(parentEdge[cur])) {
+			edges.add(parentEdge[cur]);
+		}
+
+		int[] path = edges.toArray();
+		if (!reverse) {
+			// Collected from v back to the root
+			for (int i = 0, j = path.length - 1; i < j; i++, j--) {
+				int tmp = path[i];
+				path[i] = path[j];
+				path[j] = tmp;
+			}
+		}
+
+		return path;
+	}
+
+	// The vertex one step closer to the root along e
+	private int next(int e) {
+		return reverse ? graph.edgeTarget(e) : graph.edgeSource(e);
+	}
+}
@@ -0,0 +1,190 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over vertex coordinates for snapping arbitrary coordinates to
+ * the nearest road point. Vertices are bucketed by cell in CSR form, with the
+ * cell size chosen so that a cell holds a couple of vertices on average.
+ *
+ * The index holds its own copy of the coordinates, so it stays valid whatever
+ * happens to the arrays it was built from. Building is O(n), so after
+ * coordinates change (e.g. a new {@link Viewport}) just build a new one.
+ */
+public class SpatialIndex {
+	private static final int VERTICES_PER_CELL = 2;
+
+	private final int[] xs;
+	private final int[] ys;
+
+	// Grid origin, cell size and dimensions
+	private final int minX;
+	private final int minY;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+
+	// cellVertices[cellOffsets[c]..cellOffsets[c + 1]] are the vertices in cell c
+	private final int[] cellOffsets;
+	private final int[] cellVertices;
+
+	public SpatialIndex(RoadGraph graph) {
+		this(graph.getCoordinates().xs(), graph.getCoordinates().ys());
+	}
+
+	/**
+	 * @param xs
+	 *            x coordinate of each vertex
+	 * @param ys
+	 *            y coordinate of each vertex
+	 */
+	public SpatialIndex(int[] xs, int[] ys) {
+		this.xs = xs.clone();
+		this.ys = ys.clone();
+		final int n = xs.length;
+
+		int loX = Integer.MAX_VALUE;
+		int loY = Integer.MAX_VALUE;
+		int hiX = Integer.MIN_VALUE;
+		int hiY = Integer.MIN_VALUE;
+		for (int v = 0; v < n; v++) {
+			loX = Math.min(loX, xs[v]);
+			loY = Math.min(loY, ys[v]);
+			hiX = Math.max(hiX, xs[v]);
+			hiY = Math.max(hiY, ys[v]);
+		}
+		if (n == 0) {
+			loX = loY = hiX = hiY = 0;
+		}
+
+		// Square cells sized for a few vertices each
+		final double width = Math.max(1, (double) hiX - loX);
+		final double height = Math.max(1, (double) hiY - loY);
+		final double numCells = Math.max(1, n / VERTICES_PER_CELL);
+		minX = loX;
+		minY = loY;
+		cellSize = Math.max(1, Math.sqrt(width * height / numCells));
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// Counting sort the vertices by cell
+		cellOffsets = new int[columns * rows + 1];
+		for (int v = 0; v < n; v++) {
+			cellOffsets[cellOf(xs[v], ys[v]) + 1]++;
+		}
+		for (int c = 0; c < columns * rows; c++) {
+			cellOffsets[c + 1] += cellOffsets[c];
+		}
+
+		final int[] fill = Arrays.copyOf(cellOffsets, columns * rows);
+		cellVertices = new int[n];
+		for (int v = 0; v < n; v++) {
+			cellVertices[fill[cellOf(xs[v], ys[v])]++] = v;
+		}
+	}
+
+	/**
+	 * Find the vertex closest to (x, y)
+	 *
+	 * @param x
+	 * @param y
+	 * @param maxDistance
+	 *            ignore vertices farther away than this
+	 * @return the closest vertex, or -1 if none is within maxDistance
+	 */
+	public int nearest(double x, double y, double maxDistance) {
+		final int cx = clamp(column(x), columns);
+		final int cy = clamp(row(y), rows);
+		final int maxRing = Math.max(columns, rows);
+
+		int best = -1;
+		double bestDistSq = maxDistance * maxDistance;
+
+		// Search rings of cells around (cx, cy) outwards. Every cell of ring r is
+		// at least (r - 1) cells away from the query point.
+		for (int ring = 0; ring <= maxRing; ring++) {
+			double ringDist = Math.max(0, ring - 1) * cellSize;
+			if (ringDist * ringDist > bestDistSq) {
+				break;
+			}
+
+			for (int row = cy - ring; row <= cy + ring; row++) {
+				if (row < 0 || row >= rows) {
+					continue;
+				}
+
+				// Only the border of the ring is new; inner rows just have two cells
+				boolean border = row == cy - ring || row == cy + ring;
+				int step = border ? 1 : Math.max(1, 2 * ring);
+				for (int col = cx - ring; col <= cx + ring; col += step) {
+					if (col < 0 || col >= columns) {
+						continue;
+					}
+
+					int cell = row * columns + col;
+					for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+						int v = cellVertices[i];
+						double dx = xs[v] - x;
+						double dy = ys[v] - y;
+						double distSq = dx * dx + dy * dy;
+						if (distSq <= bestDistSq && (best < 0 || distSq < bestDistSq || v < best)) {
+							best = v;
+							bestDistSq = distSq;
+						}
+					}
+				}
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Find every vertex within radius of (x, y)
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @return the vertices, in no particular order
+	 */
+	public int[] withinRadius(double x, double y, double radius) {
+		final int loCol = clamp(column(x - radius), columns);
+		final int hiCol = clamp(column(x + radius), columns);
+		final int loRow = clamp(row(y - radius), rows);
+		final int hiRow = clamp(row(y + radius), rows);
+		final double radiusSq = radius * radius;
+
+		IntList found = new IntList();
+		for (int row = loRow; row <= hiRow; row++) {
+			for (int col = loCol; col <= hiCol; col++) {
+				int cell = row * columns + col;
+				for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+					int v = cellVertices[i];
+					double dx = xs[v] - x;
+					double dy = ys[v] - y;
+					if (dx * dx + dy * dy <= radiusSq) {
+						found.add(v);
+					}
+				}
+			}
+		}
+
+		return found.toArray();
+	}
+
+	private int cellOf(int x, int y) {
+		return row(y) * columns + column(x);
+	}
+
+	private int column(double x) {
+		return (int) Math.floor((x - minX) / cellSize);
+	}
+
+	private int row(double y) {
+		return (int) Math.floor((y - minY) / cellSize);
+	}
+
+	private static int clamp(int i, int size) {
+		return Math.max(0, Math.min(size - 1, i));
+	}
+}
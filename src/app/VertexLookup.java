@@ -0,0 +1,68 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from vertex coordinates to vertex id. Only vertex
+ * ids are stored; the coordinates they are compared against live in the
+ * graph's coordinate store. The table is a plain int[], so it can be saved
+ * and loaded as is.
+ */
+final class VertexLookup {
+	private static final int EMPTY = -1;
+
+	// slots[i] is a vertex id or EMPTY. The length is a power of two.
+	private final int[] slots;
+
+	/**
+	 * Index every vertex
+	 *
+	 * @param coordinates
+	 */
+	VertexLookup(Coordinates coordinates) {
+		int capacity = Integer.highestOneBit(Math.max(2, coordinates.size() * 2 - 1)) << 1;
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		for (int v = 0; v < coordinates.size(); v++) {
+			int slot = hash(coordinates.getX(v), coordinates.getY(v)) & (capacity - 1);
+			while (slots[slot] != EMPTY) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			slots[slot] = v;
+		}
+	}
+
+	/**
+	 * Wrap a table previously returned by {@link #slots()}
+	 */
+	VertexLookup(int[] slots) {
+		if (Integer.bitCount(slots.length) != 1) {
+			throw new IllegalArgumentException("Lookup table size must be a power of two: " + slots.length);
+		}
+		this.slots = slots;
+	}
+
+	int[] slots() {
+		return slots;
+	}
+
+	/**
+	 * @return id of the vertex at (x, y), or -1 if there is none
+	 */
+	int find(Coordinates coordinates, int x, int y) {
+		final int mask = slots.length - 1;
+		int slot = hash(x, y) & mask;
+		while (true) {
+			int v = slots[slot];
+			if (v == EMPTY || coordinates.getX(v) == x && coordinates.getY(v) == y) {
+				return v;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	static int hash(int x, int y) {
+		int h = x * 0x9E3779B1 + y * 0x85EBCA6B;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,82 @@
+package app;
+
+/**
+ * Transform between world coordinates and screen coordinates for drawing a
+ * graph: the graph's bounding box plus padding is stretched to fill the screen,
+ * with y flipped so that north is up. Routing only ever sees world
+ * coordinates, so a new viewport (e.g. after the window is resized) just means
+ * redrawing.
+ */
+public class Viewport {
+	private final double minX;
+	private final double minY;
+	private final double xScale;
+	private final double yScale;
+	private final int height;
+
+	/**
+	 * Fit graph's vertices to a width by height screen
+	 *
+	 * @param graph
+	 * @param width
+	 * @param height
+	 * @param xPadding
+	 *            world units added left and right of the vertices
+	 * @param yPadding
+	 *            world units added above and below the vertices
+	 */
+	public Viewport(RoadGraph graph, int width, int height, int xPadding, int yPadding) {
+		double loX = Integer.MAX_VALUE;
+		double loY = Integer.MAX_VALUE;
+		double hiX = Integer.MIN_VALUE;
+		double hiY = Integer.MIN_VALUE;
+		for (int v = 0; v < graph.getVertexCount(); v++) {
+			loX = Math.min(loX, graph.getX(v));
+			loY = Math.min(loY, graph.getY(v));
+			hiX = Math.max(hiX, graph.getX(v));
+			hiY = Math.max(hiY, graph.getY(v));
+		}
+
+		loX -= xPadding;
+		hiX += xPadding;
+		loY -= yPadding;
+		hiY += yPadding;
+		this.minX = loX;
+		this.minY = loY;
+		this.xScale = (hiX - loX) / width;
+		this.yScale = (hiY - loY) / height;
+		this.height = height;
+	}
+
+	public double screenX(int x) {
+		return (x - minX) / xScale;
+	}
+
+	public double screenY(int y) {
+		return height - (y - minY) / yScale;
+	}
+
+	/**
+	 * @return screen x of every vertex of graph, rounded to the nearest pixel
+	 */
+	public int[] screenXs(RoadGraph graph) {
+		int[] xs = new int[graph.getVertexCount()];
+		for (int v = 0; v < xs.length; v++) {
+			xs[v] = (int) Math.round(screenX(graph.getX(v)));
+		}
+
+		return xs;
+	}
+
+	/**
+	 * @return screen y of every vertex of graph, rounded to the nearest pixel
+	 */
+	public int[] screenYs(RoadGraph graph) {
+		int[] ys = new int[graph.getVertexCount()];
+		for (int v = 0; v < ys.length; v++) {
+			ys[v] = (int) Math.round(screenY(graph.getY(v)));
+		}
+
+		return ys;
+	}
+}
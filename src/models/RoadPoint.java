@@ -2,22 +2,43 @@ package models;
 
 import java.awt.Point;
 
+/**
+ * Immutable road endpoint in world coordinates
+ */
 public class RoadPoint {
-	private final Point point;
-	
+	private final int x;
+	private final int y;
+
 	public RoadPoint(Point p) {
-		this.point = p;
+		this(p.x, p.y);
 	}
 
+	public RoadPoint(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @return a copy of the coordinates; changing it doesn't change the point
+	 */
 	public Point getPoint() {
-		return point;
+		return new Point(x, y);
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((point == null) ? 0 : point.hashCode());
+		result = prime * result + x;
+		result = prime * result + y;
 		return result;
 	}
 
@@ -30,17 +51,12 @@ public class RoadPoint {
 		if (getClass() != obj.getClass())
 			return false;
 		RoadPoint other = (RoadPoint) obj;
-		if (point == null) {
-			if (other.point != null)
-				return false;
-		} else if (!point.equals(other.point))
-			return false;
-		return true;
+		return x == other.x && y == other.y;
 	}
 
 	@Override
 	public String toString() {
-		return "RoadPoint [point=" + point + "]";
+		return "RoadPoint [point=" + getPoint() + "]";
 	}
 	
 	